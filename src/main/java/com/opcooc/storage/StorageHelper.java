@@ -17,11 +17,22 @@ package com.opcooc.storage;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.opcooc.storage.model.UrlResult;
 import com.opcooc.storage.support.DriverAdapterManager;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.CollectionUtils;
 import org.springframework.util.ObjectUtils;
 
 import com.amazonaws.services.s3.model.AccessControlList;
@@ -31,18 +42,28 @@ import com.opcooc.storage.args.BucketArgs;
 import com.opcooc.storage.args.BucketPolicyArgs;
 import com.opcooc.storage.args.CopyObjectArgs;
 import com.opcooc.storage.args.DeleteObjectArgs;
+import com.opcooc.storage.args.DownloadObjectsArgs;
 import com.opcooc.storage.args.ListObjectArgs;
 import com.opcooc.storage.args.ObjectAclArgs;
 import com.opcooc.storage.args.ObjectArgs;
 import com.opcooc.storage.args.ObjectToFileArgs;
+import com.opcooc.storage.args.ParallelListObjectArgs;
 import com.opcooc.storage.args.PresignedUrlArgs;
+import com.opcooc.storage.args.RangeObjectArgs;
 import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.adapter.DriverAdapter;
+import com.opcooc.storage.args.UploadDirectoryArgs;
 import com.opcooc.storage.service.NFSService;
 import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.io.RangeInputStream;
+import com.opcooc.storage.model.BatchReport;
+import com.opcooc.storage.model.BatchResult;
 import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.model.ObjectListPage;
 import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
 import com.opcooc.storage.support.BucketConverter;
 import com.opcooc.storage.support.ObjectConverter;
+import com.opcooc.storage.support.SingleFlight;
 import com.opcooc.storage.toolkit.ContentTypeUtils;
 import com.opcooc.storage.toolkit.StorageChecker;
 
@@ -63,6 +84,11 @@ public class StorageHelper implements InitializingBean, NFSService {
 
     private final DriverAdapterManager manager;
 
+    /**
+     * 正在进行的 bucket 创建, key 为 {driver}/{bucketName}
+     */
+    private final SingleFlight<String> bucketCreations = new SingleFlight<>();
+
     @Setter
     private BucketConverter bucketConverter = (config, bucket) ->
             ObjectUtils.isEmpty(bucket.getBucketName()) && config != null ? config.getDefaultBucket() : bucket.getBucketName();
@@ -88,9 +114,27 @@ public class StorageHelper implements InitializingBean, NFSService {
      * @return 参数
      */
     private String determineBucket(BucketArgs args) {
+        DriverProperties config = getConfiguration();
+        String bucketName = convertBucket(config, args);
+
+        if (Boolean.FALSE.equals(args.getCheckExist())) {
+            return bucketName;
+        }
+
+        checkBucket(config, bucketName, args.getUseCache());
+        return bucketName;
+    }
+
+    /**
+     * 转换 bucket 名称
+     *
+     * @param config 配置
+     * @param args   参数
+     * @return bucket 名称
+     */
+    private String convertBucket(DriverProperties config, BucketArgs args) {
         log.debug("opcooc-storage - determine bucket name before [{}]", args.getBucketName());
 
-        DriverProperties config = getConfiguration();
         BucketConverter converter = args.getBucketConverter() == null ? bucketConverter : args.getBucketConverter();
         String bucketName = converter.convert(config, args);
 
@@ -99,22 +143,47 @@ public class StorageHelper implements InitializingBean, NFSService {
         if (ObjectUtils.isEmpty(bucketName)) {
             throw new StorageException(" bucketName cannot be empty");
         }
+        return bucketName;
+    }
 
-        if (Boolean.FALSE.equals(args.getCheckExist())) {
-            return bucketName;
+    /**
+     * 检查 bucket 是否存在, 不存在时根据配置自动创建或抛出异常
+     * 同一个客户端驱动对同一个 bucket 的并发检查和创建合并为一次, 等待的调用方共享其结果
+     *
+     * @param config     配置
+     * @param bucketName bucket 名称
+     * @param useCache   是否使用 bucket 存在性缓存(调用方参数中的设置)
+     */
+    private void checkBucket(DriverProperties config, String bucketName, Boolean useCache) {
+        BucketArgs bucket = BucketArgs.builder().bucketName(bucketName).useCache(!Boolean.FALSE.equals(useCache)).build();
+        if (doesBucketExist(bucket)) {
+            return;
         }
-
-        boolean doesExist = doesBucketExist(BucketArgs.builder().bucketName(bucketName).build());
-
-        if (Boolean.FALSE.equals(config.getAutoCreateBucket()) && !doesExist) {
+        if (Boolean.FALSE.equals(config.getAutoCreateBucket())) {
             throw new StorageException("there is no bucket named [%s] ", bucketName);
         }
 
-        if (Boolean.TRUE.equals(config.getAutoCreateBucket()) && !doesExist) {
-            createBucket(BucketArgs.builder().bucketName(bucketName).build());
-        }
+        DriverAdapter driver = manager.determineDriver();
+        bucketCreations.execute(driver.driver() + "/" + bucketName, () -> createBucket(driver.connect(), bucket));
+    }
 
-        return bucketName;
+    /**
+     * 创建 bucket, 创建失败但 bucket 已经存在(被其他进程创建)时视为成功
+     */
+    private static String createBucket(NFSService connect, BucketArgs bucket) {
+        // 直接调用客户端驱动, 避免再次确定 bucket 时重复检查
+        BucketArgs uncached = bucket.toBuilder().useCache(false).build();
+        if (connect.doesBucketExist(uncached)) {
+            return bucket.getBucketName();
+        }
+        try {
+            return connect.createBucket(bucket);
+        } catch (StorageException e) {
+            if (!connect.doesBucketExist(uncached)) {
+                throw e;
+            }
+            return bucket.getBucketName();
+        }
     }
 
     /**
@@ -256,6 +325,77 @@ public class StorageHelper implements InitializingBean, NFSService {
         return getConnect().uploadFile(args);
     }
 
+    /**
+     * 批量上传, 每个不同的 bucket 只确定一次
+     *
+     * @param args 参数集合
+     * @return 按参数顺序排列的上传结果
+     */
+    @Override
+    public List<BatchResult<FileBasicInfo>> uploadObjects(Collection<UploadArgs> args) {
+        DriverProperties config = getConfiguration();
+        Map<String, StorageException> checkedBuckets = new HashMap<>();
+        List<BatchResult<FileBasicInfo>> results = new ArrayList<>(args.size());
+        List<UploadArgs> prepared = new ArrayList<>(args.size());
+        List<Integer> indexes = new ArrayList<>(args.size());
+        for (UploadArgs original : args) {
+            try {
+                String bucketName = convertBucket(config, original);
+                if (!Boolean.FALSE.equals(original.getCheckExist())) {
+                    if (!checkedBuckets.containsKey(bucketName)) {
+                        try {
+                            checkBucket(config, bucketName, original.getUseCache());
+                            checkedBuckets.put(bucketName, null);
+                        } catch (StorageException e) {
+                            checkedBuckets.put(bucketName, e);
+                        }
+                    }
+                    if (checkedBuckets.get(bucketName) != null) {
+                        throw checkedBuckets.get(bucketName);
+                    }
+                }
+                UploadArgs item = original.toBuilder().bucketName(bucketName).objectName(determineObject(original)).build();
+                if (item.getFile() == null) {
+                    item = determineContentType(item);
+                }
+                item.validate();
+                indexes.add(results.size());
+                prepared.add(item);
+                results.add(null);
+            } catch (StorageException e) {
+                results.add(BatchResult.failure(original.getBucketName(), original.getObjectName(), e));
+            }
+        }
+        if (prepared.isEmpty()) {
+            return results;
+        }
+        List<BatchResult<FileBasicInfo>> uploaded = getConnect().uploadObjects(prepared);
+        for (int i = 0; i < indexes.size(); i++) {
+            results.set(indexes.get(i), uploaded.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * 上传本地目录到默认 bucket
+     *
+     * @param directory 本地目录
+     * @param prefix    对象名称前缀
+     * @return 每个文件的上传结果
+     */
+    public List<BatchResult<FileBasicInfo>> uploadDirectory(Path directory, String prefix) {
+        return uploadDirectory(UploadDirectoryArgs.builder().directory(directory).objectName(prefix).build());
+    }
+
+    @Override
+    public List<BatchResult<FileBasicInfo>> uploadDirectory(UploadDirectoryArgs args) {
+        args = determineBucketArgs(args);
+        ObjectConverter converter = args.getObjectConverter() == null ? objectConverter : args.getObjectConverter();
+        args = args.toBuilder().objectConverter(converter).build();
+        args.validate();
+        return getConnect().uploadDirectory(args);
+    }
+
     @Override
     public void copyObject(CopyObjectArgs args) {
         args = determineBucketArgs(args);
@@ -272,6 +412,34 @@ public class StorageHelper implements InitializingBean, NFSService {
         return getConnect().listObjects(args);
     }
 
+    @Override
+    public Stream<FileBasicInfo> streamObjects(ListObjectArgs args) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().streamObjects(args);
+    }
+
+    @Override
+    public ObjectListPage listFolder(ListObjectArgs args) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().listFolder(args);
+    }
+
+    @Override
+    public ObjectListPage listObjectsPage(ListObjectArgs args) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().listObjectsPage(args);
+    }
+
+    @Override
+    public Stream<FileBasicInfo> listObjectsParallel(ParallelListObjectArgs args) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().listObjectsParallel(args);
+    }
+
     @Override
     public FileBasicInfo getObjectMetadata(ObjectArgs args) {
         args = determineBucketArgs(args);
@@ -293,6 +461,34 @@ public class StorageHelper implements InitializingBean, NFSService {
         return getConnect().getObjectToStream(args);
     }
 
+    @Override
+    public RangeInputStream getObjectRange(RangeObjectArgs args) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().getObjectRange(args);
+    }
+
+    @Override
+    public SeekableByteChannel getObjectToChannel(ObjectArgs args) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().getObjectToChannel(args);
+    }
+
+    @Override
+    public long transferObject(ObjectArgs args, OutputStream out) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().transferObject(args, out);
+    }
+
+    @Override
+    public long transferObject(ObjectArgs args, WritableByteChannel channel) {
+        args = determineBucketArgs(args);
+        args.validate();
+        return getConnect().transferObject(args, channel);
+    }
+
     @Override
     public File geObjectToFile(ObjectToFileArgs args) {
         args = determineBucketArgs(args);
@@ -300,6 +496,33 @@ public class StorageHelper implements InitializingBean, NFSService {
         return getConnect().geObjectToFile(args);
     }
 
+    /**
+     * 下载前缀下的所有对象到目录
+     *
+     * @param prefix    对象名称前缀
+     * @param directory 本地目录
+     * @return 结果
+     */
+    public BatchReport<File> downloadObjects(String prefix, Path directory) {
+        return downloadObjects(DownloadObjectsArgs.builder().objectName(prefix).directory(directory).build());
+    }
+
+    @Override
+    public BatchReport<File> downloadObjects(DownloadObjectsArgs args) {
+        args = determineBucketArgs(args);
+        if (!CollectionUtils.isEmpty(args.getObjectNames())) {
+            // 指定的对象名称与其他单对象接口一样经过 ObjectConverter 转换
+            String bucketName = args.getBucketName();
+            ObjectConverter converter = args.getObjectConverter();
+            List<String> objectNames = args.getObjectNames().stream()
+                    .map(name -> determineObject(ObjectArgs.builder().bucketName(bucketName).objectName(name).objectConverter(converter).build()))
+                    .collect(Collectors.toList());
+            args = args.toBuilder().objectNames(objectNames).build();
+        }
+        args.validate();
+        return getConnect().downloadObjects(args);
+    }
+
     @Override
     public void deleteObject(DeleteObjectArgs args) {
         args = determineBucketArgs(args);
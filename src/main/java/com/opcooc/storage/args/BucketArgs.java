@@ -37,6 +37,12 @@ public class BucketArgs {
 
     private BucketConverter bucketConverter;
 
+    /**
+     * 是否使用 bucket 存在性缓存和对象元数据缓存(只对开启了对应缓存的客户端驱动生效)
+     */
+    @Builder.Default
+    private Boolean useCache = true;
+
     public void validate() {
         StorageChecker.validateBucket(bucketName, "BucketArgs bucketName");
     }
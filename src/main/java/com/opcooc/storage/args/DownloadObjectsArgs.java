@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.args;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.opcooc.storage.toolkit.StorageChecker;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * 批量下载参数
+ * <pre>
+ * objectNames 为空时下载 objectName 前缀下的所有对象, 否则只下载指定的对象,
+ * 本地文件路径为对象名称去掉前缀中最后一个 '/' 之前的部分后相对于 directory 的路径
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Getter
+@SuperBuilder(toBuilder = true)
+public class DownloadObjectsArgs extends ObjectArgs {
+
+    /**
+     * 需要下载的对象名称
+     */
+    private List<String> objectNames;
+
+    /**
+     * 本地目录
+     */
+    private Path directory;
+
+    /**
+     * 是否跳过大小和ETag与服务端一致的本地文件
+     */
+    @Builder.Default
+    private Boolean skipUnchanged = true;
+
+    @Override
+    public void validate() {
+        StorageChecker.validateBucket(getBucketName(), "BucketArgs bucketName");
+        StorageChecker.validateNotNull(directory, "DownloadObjectsArgs directory");
+    }
+}
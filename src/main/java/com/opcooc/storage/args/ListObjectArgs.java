@@ -32,6 +32,23 @@ public class ListObjectArgs extends ObjectArgs {
     @Builder.Default
     private int maxKeys = 1000;
 
+    /**
+     * 分隔符, 按目录列举时使用(listFolder 为空时使用 '/')
+     * listObjects/streamObjects 指定时只返回直属对象, 不返回公共前缀; listObjectsParallel 不支持
+     */
+    private String delimiter;
+
+    /**
+     * 上一页返回的 nextContinuationToken, 为空时从第一页开始
+     * listObjects/streamObjects 从该位置继续列举; listObjectsParallel 不支持
+     */
+    private String continuationToken;
+
+    /**
+     * 从该对象名称之后开始列举(不包含), 只在第一页生效, 指定 continuationToken 时被忽略
+     */
+    private String startAfter;
+
     @Override
     public void validate() {
         super.validate();
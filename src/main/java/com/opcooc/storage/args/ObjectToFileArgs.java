@@ -19,6 +19,7 @@ import java.io.File;
 
 import com.opcooc.storage.toolkit.StorageChecker;
 
+import lombok.Builder;
 import lombok.Getter;
 import lombok.experimental.SuperBuilder;
 
@@ -32,6 +33,12 @@ public class ObjectToFileArgs extends ObjectArgs {
 
     private File file;
 
+    /**
+     * 是否断点续传(中断后保留 .part 文件, 下次从已下载的位置继续)
+     */
+    @Builder.Default
+    private Boolean resumable = false;
+
     @Override
     public void validate() {
         super.validate();
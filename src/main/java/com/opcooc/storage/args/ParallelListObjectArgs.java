@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.args;
+
+import java.util.List;
+
+import org.springframework.util.StringUtils;
+
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.toolkit.StorageChecker;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * 并行列举参数, objectName 为对象名称前缀(可以为空, 表示整个bucket)
+ * <pre>
+ * 指定 splitPoints 时按分割点划分分区(按 UTF-8 顺序), 分割点本身属于前一个分区;
+ * 否则先按 '/' 列举一级公共前缀, 每个公共前缀作为一个分区, 前缀之间的直属对象按需列举;
+ * 公共前缀不足两个时在名称空间上按数字和字母生成分割点
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Getter
+@SuperBuilder(toBuilder = true)
+public class ParallelListObjectArgs extends ListObjectArgs {
+
+    /**
+     * 分割点(对象名称), 为空时按公共前缀划分
+     */
+    private List<String> splitPoints;
+
+    /**
+     * 同时列举的分区数, 为空时使用 listConcurrency
+     */
+    private Integer parallelism;
+
+    /**
+     * 是否按对象名称顺序返回, 关闭时先完成的分区先返回
+     */
+    @Builder.Default
+    private Boolean ordered = false;
+
+    @Override
+    public void validate() {
+        StorageChecker.validateBucket(getBucketName(), "BucketArgs bucketName");
+        if (parallelism != null && parallelism < 1) {
+            throw new StorageException("ParallelListObjectArgs parallelism must be at least 1");
+        }
+        if (StringUtils.hasLength(getDelimiter()) || StringUtils.hasLength(getContinuationToken())) {
+            // 分区由公共前缀或分割点决定, 单个续列令牌无法对应多个分区
+            throw new StorageException("ParallelListObjectArgs does not support delimiter or continuationToken");
+        }
+    }
+}
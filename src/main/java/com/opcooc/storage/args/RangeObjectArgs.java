@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.args;
+
+import com.opcooc.storage.exception.StorageException;
+
+import lombok.Getter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * 范围读取参数
+ * 1.offset + length 读取 [offset, offset + length - 1]
+ * 2.只有 offset 读取 offset 到对象末尾
+ * 3.suffixLength 读取对象最后 suffixLength 个字节
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Getter
+@SuperBuilder(toBuilder = true)
+public class RangeObjectArgs extends ObjectArgs {
+
+    /**
+     * 起始位置
+     */
+    private Long offset;
+
+    /**
+     * 读取长度
+     */
+    private Long length;
+
+    /**
+     * 读取对象末尾的长度(不能与 offset 同时使用)
+     */
+    private Long suffixLength;
+
+    @Override
+    public void validate() {
+        super.validate();
+        if ((offset == null) == (suffixLength == null)) {
+            throw new StorageException("exactly one of offset and suffixLength must be set.");
+        }
+        if (offset != null && offset < 0) {
+            throw new StorageException("offset %s must not be negative.", offset);
+        }
+        if (length != null && (offset == null || length < 1)) {
+            throw new StorageException("length %s must be positive and used with offset.", length);
+        }
+        if (suffixLength != null && suffixLength < 1) {
+            throw new StorageException("suffixLength %s must be positive.", suffixLength);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.InputStream;
 import com.opcooc.storage.exception.StorageException;
 import com.opcooc.storage.toolkit.StorageChecker;
 
+import lombok.Builder;
 import lombok.Getter;
 import lombok.experimental.SuperBuilder;
 
@@ -36,10 +37,19 @@ public class UploadArgs extends ObjectArgs {
 
     private InputStream stream;
 
+    /**
+     * 流的长度, 未知时(小于等于0)按分片大小流式上传
+     */
     private long objectSize;
 
     private String contentType;
 
+    /**
+     * 是否断点续传(只对分片上传文件生效)
+     */
+    @Builder.Default
+    private Boolean resumable = false;
+
     @Override
     public void validate() {
         super.validate();
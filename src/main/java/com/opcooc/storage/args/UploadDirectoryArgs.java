@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.args;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.toolkit.StorageChecker;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.experimental.SuperBuilder;
+
+/**
+ * 上传目录参数, objectName 为对象名称前缀(可以为空)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Getter
+@SuperBuilder(toBuilder = true)
+public class UploadDirectoryArgs extends ObjectArgs {
+
+    /**
+     * 本地目录
+     */
+    private Path directory;
+
+    /**
+     * 是否跳过大小和ETag与服务端一致的文件
+     * 本地ETag按当前客户端驱动的 multipartThreshold 和 partSize 计算, 只能识别使用相同分片配置上传的对象,
+     * 其他方式上传的分片对象即使内容相同也会重新上传
+     */
+    @Builder.Default
+    private Boolean skipUnchanged = true;
+
+    @Override
+    public void validate() {
+        StorageChecker.validateBucket(getBucketName(), "BucketArgs bucketName");
+        StorageChecker.validateNotNull(directory, "UploadDirectoryArgs directory");
+        if (!Files.isDirectory(directory)) {
+            throw new StorageException("[%s] the directory does not exist", directory);
+        }
+    }
+}
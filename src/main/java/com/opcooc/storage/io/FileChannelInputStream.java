@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 读取 FileChannel 指定区域的输入流
+ * <pre>
+ * 使用定位读取(不修改 channel 的 position), 多个分片可以共享同一个 FileChannel 并发读取,
+ * 数据直接读入调用方的数组, 不经过额外的缓冲区.
+ * 支持 mark/reset, 请求重试时无需重新打开文件.
+ * 关闭该输入流不会关闭共享的 FileChannel.
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private final long end;
+
+    private long position;
+
+    private long mark;
+
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param channel 文件通道
+     * @param offset  区域起始位置
+     * @param length  区域长度
+     */
+    public FileChannelInputStream(FileChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.position = offset;
+        this.mark = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read;
+        do {
+            read = read(single, 0, 1);
+        } while (read == 0);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = end - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+        int read = channel.read(buffer, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+
+}
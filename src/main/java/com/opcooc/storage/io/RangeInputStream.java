@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.io;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+import lombok.Getter;
+
+/**
+ * 范围读取的输入流, 记录服务端实际返回的范围和对象的总长度
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Getter
+public class RangeInputStream extends FilterInputStream {
+
+    /**
+     * 返回范围的起始位置(包含)
+     */
+    private final long rangeStart;
+
+    /**
+     * 返回范围的结束位置(包含), 空范围时为 rangeStart - 1
+     */
+    private final long rangeEnd;
+
+    /**
+     * 对象的总长度
+     */
+    private final long instanceLength;
+
+    /**
+     * 对象的ETag
+     */
+    private final String eTag;
+
+    public RangeInputStream(InputStream in, long rangeStart, long rangeEnd, long instanceLength, String eTag) {
+        super(in);
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.instanceLength = instanceLength;
+        this.eTag = eTag;
+    }
+
+    /**
+     * 返回范围的长度
+     *
+     * @return 长度
+     */
+    public long getRangeLength() {
+        return rangeEnd - rangeStart + 1;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.io;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.amazonaws.internal.SdkFilterInputStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 将对象输入流写入 OutputStream 或 WritableByteChannel
+ * <pre>
+ * 1.来源是本地文件(磁盘缓存命中)时使用 FileChannel.transferTo, 由操作系统直接复制
+ * 2.其他来源使用共享的缓冲区池复制, 不为每次传输分配新的缓冲区
+ * 3.传输完成后关闭输入流, 此时连接已读完可以复用; 传输失败时直接断开连接, 不读取剩余数据
+ * 4.不关闭调用方传入的输出流或通道
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Slf4j
+public final class StreamTransfer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(64);
+
+    private StreamTransfer() {
+    }
+
+    /**
+     * 传输到 OutputStream
+     *
+     * @param in  对象输入流(传输后关闭)
+     * @param out 输出流
+     * @return 传输的字节数
+     */
+    public static long transfer(InputStream in, OutputStream out) throws IOException {
+        boolean completed = false;
+        try {
+            FileChannel source = fileChannel(in);
+            long transferred;
+            if (source != null && out instanceof FileOutputStream) {
+                transferred = transfer(source, ((FileOutputStream) out).getChannel());
+            } else {
+                byte[] buffer = acquire();
+                try {
+                    transferred = 0;
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        transferred += read;
+                    }
+                } finally {
+                    release(buffer);
+                }
+            }
+            completed = true;
+            return transferred;
+        } finally {
+            close(in, completed);
+        }
+    }
+
+    /**
+     * 传输到 WritableByteChannel
+     *
+     * @param in      对象输入流(传输后关闭)
+     * @param channel 通道
+     * @return 传输的字节数
+     */
+    public static long transfer(InputStream in, WritableByteChannel channel) throws IOException {
+        boolean completed = false;
+        try {
+            FileChannel source = fileChannel(in);
+            long transferred;
+            if (source != null) {
+                transferred = transfer(source, channel);
+            } else {
+                byte[] buffer = acquire();
+                try {
+                    transferred = 0;
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        writeFully(channel, ByteBuffer.wrap(buffer, 0, read));
+                        transferred += read;
+                    }
+                } finally {
+                    release(buffer);
+                }
+            }
+            completed = true;
+            return transferred;
+        } finally {
+            close(in, completed);
+        }
+    }
+
+    private static long transfer(FileChannel source, WritableByteChannel target) throws IOException {
+        long position = source.position();
+        long size = source.size();
+        long transferred = 0;
+        while (position < size) {
+            long count = source.transferTo(position, size - position, target);
+            if (count <= 0) {
+                // transferTo 没有进展(非阻塞的目标通道或文件被截断), 改为缓冲区复制
+                count = copy(source, position, size, target);
+            }
+            position += count;
+            transferred += count;
+        }
+        source.position(position);
+        return transferred;
+    }
+
+    /**
+     * 通过缓冲区复制文件的剩余部分
+     *
+     * @return 复制的字节数
+     */
+    private static long copy(FileChannel source, long position, long size, WritableByteChannel target) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long copied = 0;
+            while (position + copied < size) {
+                ByteBuffer src = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, size - position - copied));
+                int read = source.read(src, position + copied);
+                if (read < 0) {
+                    throw new IOException(String.format("file truncated during transfer, expected [%s] bytes but got [%s]", size, position + copied));
+                }
+                src.flip();
+                writeFully(target, src);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel target, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (target.write(src) <= 0) {
+                throw new IOException("target channel accepted no bytes, non-blocking channels are not supported");
+            }
+        }
+    }
+
+    /**
+     * 输入流的数据来源是本地文件时返回对应的 FileChannel
+     */
+    private static FileChannel fileChannel(InputStream in) {
+        InputStream current = in;
+        while (current instanceof SdkFilterInputStream) {
+            current = ((SdkFilterInputStream) current).getDelegateStream();
+        }
+        return current instanceof FileInputStream ? ((FileInputStream) current).getChannel() : null;
+    }
+
+    private static void close(InputStream in, boolean completed) {
+        if (!completed && in instanceof SdkFilterInputStream) {
+            // 剩余数据长度未知, 断开连接而不是读完
+            ((SdkFilterInputStream) in).abort();
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.warn("opcooc-storage - close object stream failed", e);
+        }
+    }
+
+    private static byte[] acquire() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+    }
+
+    private static void release(byte[] buffer) {
+        BUFFERS.offer(buffer);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量操作的结果和总体吞吐量
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchReport<T> {
+
+    /**
+     * 每个对象的结果
+     */
+    private List<BatchResult<T>> results;
+
+    /**
+     * 实际传输的字节数(不包含跳过的对象)
+     */
+    private long bytes;
+
+    /**
+     * 耗时(毫秒)
+     */
+    private long elapsedMillis;
+
+    /**
+     * 平均吞吐量(字节/秒)
+     * @return 结果
+     */
+    public double getThroughput() {
+        return bytes * 1000d / Math.max(1, elapsedMillis);
+    }
+
+    public long getSkippedCount() {
+        return results.stream().filter(BatchResult::isSkipped).count();
+    }
+
+    public long getFailureCount() {
+        return results.stream().filter(result -> !result.isSuccess()).count();
+    }
+
+}
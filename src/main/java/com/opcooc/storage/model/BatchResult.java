@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.model;
+
+import com.opcooc.storage.exception.StorageException;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量操作中单个对象的结果
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResult<T> {
+
+    /**
+     * bucketName
+     */
+    private String bucketName;
+
+    /**
+     * objectName
+     */
+    private String objectName;
+
+    /**
+     * 成功时的结果
+     */
+    private T result;
+
+    /**
+     * 失败时的异常
+     */
+    private StorageException error;
+
+    /**
+     * 是否因为无需处理而跳过(此时 result 为服务端已有对象的信息)
+     */
+    private boolean skipped;
+
+    /**
+     * 是否成功
+     * @return 结果
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public static <T> BatchResult<T> success(String bucketName, String objectName, T result) {
+        return new BatchResult<>(bucketName, objectName, result, null, false);
+    }
+
+    public static <T> BatchResult<T> skipped(String bucketName, String objectName, T result) {
+        return new BatchResult<>(bucketName, objectName, result, null, true);
+    }
+
+    public static <T> BatchResult<T> failure(String bucketName, String objectName, StorageException error) {
+        return new BatchResult<>(bucketName, objectName, null, error, false);
+    }
+
+}
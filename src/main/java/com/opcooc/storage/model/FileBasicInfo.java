@@ -17,6 +17,7 @@ package com.opcooc.storage.model;
 
 import static com.amazonaws.util.DateUtils.cloneDate;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 import java.util.TreeMap;
@@ -24,12 +25,20 @@ import java.util.TreeMap;
 import com.amazonaws.services.s3.Headers;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 /**
+ * 对象信息
+ * 最后修改时间使用基本类型保存, 元数据 Map 只在有元数据或首次访问时创建, 降低大量列举结果的内存占用
+ * equals/hashCode 比较元数据的内容(未创建的 Map 等同于空 Map), 调用 getter 创建 Map 后结果不变
+ *
  * @author shenqicheng
  * @since 1.0.0
  */
 @Data
+@EqualsAndHashCode(doNotUseGetters = true)
+@ToString(doNotUseGetters = true)
 public class FileBasicInfo {
 
     /**
@@ -57,14 +66,57 @@ public class FileBasicInfo {
     public Long contentLength;
 
     /**
-     * 自定义用户元数据，在响应中以x-amz-meta- 标头前缀表示
+     * 文件最后修改时间(毫秒), 为0时从 metadata 中获取
+     */
+    private long lastModified;
+
+    /**
+     * 自定义用户元数据，在响应中以x-amz-meta- 标头前缀表示(列举结果中没有元数据, 首次访问时才创建)
+     */
+    @EqualsAndHashCode.Exclude
+    private Map<String, String> userMetadata;
+
+    /**
+     * 所有其他（非用户自定义）标头，例如Content-Length，Content-Type，等(列举结果中没有元数据, 首次访问时才创建)
+     */
+    @EqualsAndHashCode.Exclude
+    private Map<String, Object> metadata;
+
+    public Map<String, String> getUserMetadata() {
+        if (userMetadata == null) {
+            userMetadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+        return userMetadata;
+    }
+
+    public Map<String, Object> getMetadata() {
+        if (metadata == null) {
+            metadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (lastModified != 0) {
+                metadata.put(Headers.LAST_MODIFIED, new Date(lastModified));
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * 参与 equals/hashCode 的用户元数据, 不创建 Map
      */
-    private Map<String, String> userMetadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    @EqualsAndHashCode.Include
+    private Map<String, String> userMetadataContent() {
+        return userMetadata == null ? Collections.emptyMap() : userMetadata;
+    }
 
     /**
-     * 所有其他（非用户自定义）标头，例如Content-Length，Content-Type，等
+     * 参与 equals/hashCode 的元数据, 不创建 Map, 未创建时与 getMetadata() 创建的内容相同
      */
-    private Map<String, Object> metadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    @EqualsAndHashCode.Include
+    private Map<String, Object> metadataContent() {
+        if (metadata != null) {
+            return metadata;
+        }
+        return lastModified != 0 ? Collections.singletonMap(Headers.LAST_MODIFIED, new Date(lastModified)) : Collections.emptyMap();
+    }
 
     /**
      * 返回指定键的元数据的原始值
@@ -72,6 +124,9 @@ public class FileBasicInfo {
      * @return 信息
      */
     public Object getRawMetadataValue(String key) {
+        if (metadata == null) {
+            return lastModified != 0 && Headers.LAST_MODIFIED.equalsIgnoreCase(key) ? new Date(lastModified) : null;
+        }
         return metadata.get(key);
     }
 
@@ -89,7 +144,7 @@ public class FileBasicInfo {
      * @return 修改时间
      */
     public Date getLastModified() {
-        return cloneDate((Date)metadata.get(Headers.LAST_MODIFIED));
+        return lastModified != 0 ? new Date(lastModified) : cloneDate((Date) getRawMetadataValue(Headers.LAST_MODIFIED));
     }
 
     /**
@@ -97,7 +152,11 @@ public class FileBasicInfo {
      * @param lastModified 最后修改时间
      */
     public void setLastModified(Date lastModified) {
-        metadata.put(Headers.LAST_MODIFIED, lastModified);
+        this.lastModified = lastModified == null ? 0 : lastModified.getTime();
+        if (metadata != null) {
+            // 已经创建的元数据 Map 与最后修改时间保持一致
+            metadata.put(Headers.LAST_MODIFIED, cloneDate(lastModified));
+        }
     }
 
     /**
@@ -106,13 +165,19 @@ public class FileBasicInfo {
      * @return 对象的大小
      */
     public Long getContentLength() {
-        Long contentLength = this.contentLength == null || this.contentLength == 0L
-                ? (Long) metadata.get(Headers.CONTENT_LENGTH) : this.contentLength;
-
-        if (contentLength == null) {
-            return 0L;
+        if (this.contentLength != null && this.contentLength != 0L) {
+            return this.contentLength;
         }
-        return contentLength;
+        Long contentLength = (Long) getRawMetadataValue(Headers.CONTENT_LENGTH);
+        return contentLength == null ? 0L : contentLength;
+    }
+
+    /**
+     * 设置对象的大小
+     * @param contentLength 对象的大小, 为空时从 metadata 中获取
+     */
+    public void setContentLength(Long contentLength) {
+        this.contentLength = contentLength;
     }
 
     /**
@@ -120,7 +185,7 @@ public class FileBasicInfo {
      * @return 对象类型
      */
     public String getContentType() {
-        return (String)metadata.get(Headers.CONTENT_TYPE);
+        return (String) getRawMetadataValue(Headers.CONTENT_TYPE);
     }
 
     /**
@@ -128,7 +193,7 @@ public class FileBasicInfo {
      * @return md5值
      */
     public String getContentMd5() {
-        return this.contentMd5 == null ? (String) metadata.get(Headers.CONTENT_MD5) : this.contentMd5;
+        return this.contentMd5 == null ? (String) getRawMetadataValue(Headers.CONTENT_MD5) : this.contentMd5;
     }
 
     /**
@@ -136,7 +201,7 @@ public class FileBasicInfo {
      * @return 对象的ETag
      */
     public String getETag() {
-        return (String) metadata.get(Headers.ETAG);
+        return this.eTag == null ? (String) getRawMetadataValue(Headers.ETAG) : this.eTag;
     }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 单页列举结果, 对象和公共前缀(目录)分开返回
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ObjectListPage {
+
+    /**
+     * 本页的对象
+     */
+    private List<FileBasicInfo> objects;
+
+    /**
+     * 本页的公共前缀, 以 delimiter 结尾
+     */
+    private List<String> commonPrefixes;
+
+    /**
+     * 下一页的 continuationToken, 没有更多结果时为 null
+     */
+    private String nextContinuationToken;
+
+    /**
+     * 是否还有更多结果
+     */
+    private boolean truncated;
+
+}
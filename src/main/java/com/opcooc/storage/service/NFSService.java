@@ -19,7 +19,12 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.BucketPolicy;
@@ -28,13 +33,21 @@ import com.opcooc.storage.args.BucketArgs;
 import com.opcooc.storage.args.BucketPolicyArgs;
 import com.opcooc.storage.args.CopyObjectArgs;
 import com.opcooc.storage.args.DeleteObjectArgs;
+import com.opcooc.storage.args.DownloadObjectsArgs;
 import com.opcooc.storage.args.ListObjectArgs;
 import com.opcooc.storage.args.ObjectAclArgs;
 import com.opcooc.storage.args.ObjectArgs;
 import com.opcooc.storage.args.ObjectToFileArgs;
+import com.opcooc.storage.args.ParallelListObjectArgs;
 import com.opcooc.storage.args.PresignedUrlArgs;
+import com.opcooc.storage.args.RangeObjectArgs;
 import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.args.UploadDirectoryArgs;
+import com.opcooc.storage.io.RangeInputStream;
+import com.opcooc.storage.model.BatchReport;
+import com.opcooc.storage.model.BatchResult;
 import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.model.ObjectListPage;
 import com.opcooc.storage.model.UrlResult;
 
 /**
@@ -154,6 +167,23 @@ public interface NFSService extends Closeable {
      */
     FileBasicInfo uploadFile(UploadArgs args);
 
+    /**
+     * 批量上传(文件和流均可), 在客户端驱动的批量线程池中并发执行
+     *
+     * @param args 参数集合
+     * @return 按参数顺序排列的上传结果, 单个对象失败不影响其他对象
+     */
+    List<BatchResult<FileBasicInfo>> uploadObjects(Collection<UploadArgs> args);
+
+    /**
+     * 上传本地目录, 跳过大小和ETag与服务端一致的文件
+     * 本地ETag按当前的分片配置计算, 使用其他分片配置上传的对象会被重新上传
+     *
+     * @param args 参数
+     * @return 每个文件的上传结果
+     */
+    List<BatchResult<FileBasicInfo>> uploadDirectory(UploadDirectoryArgs args);
+
     /**
      * 复制文件
      *
@@ -163,12 +193,51 @@ public interface NFSService extends Closeable {
 
     /**
      * 获取指定存储空间(主目录)名称 指定前缀 的下级所有文件
+     * 指定 delimiter 时只返回直属对象, 指定 continuationToken 时从该位置继续
      *
      * @param args 参数
      * @return 文件信息集合
      */
     List<FileBasicInfo> listObjects(ListObjectArgs args);
 
+    /**
+     * 按需列举对象, 处理当前页时在后台请求下一页
+     * delimiter/continuationToken/startAfter 与 listObjects 相同
+     * 使用完毕后需要关闭(try-with-resources), 关闭后不再发送请求
+     *
+     * @param args 参数
+     * @return 文件信息流
+     */
+    Stream<FileBasicInfo> streamObjects(ListObjectArgs args);
+
+    /**
+     * 按目录列举一页, 只返回前缀下的直属对象和下一级公共前缀
+     * 继续列举时将返回的 nextContinuationToken 作为 continuationToken
+     *
+     * @param args 参数
+     * @return 单页结果
+     */
+    ObjectListPage listFolder(ListObjectArgs args);
+
+    /**
+     * 列举一页对象, 每次调用只发送一个请求
+     * 继续列举时将返回的 nextContinuationToken 作为 continuationToken, 也可以通过 startAfter 从指定对象之后开始
+     *
+     * @param args 参数
+     * @return 单页结果, 未指定 delimiter 时 commonPrefixes 为空
+     */
+    ObjectListPage listObjectsPage(ListObjectArgs args);
+
+    /**
+     * 按分割点或一级公共前缀划分分区, 多个分区并行列举
+     * 支持 startAfter, 不支持 delimiter 和 continuationToken
+     * 使用完毕后需要关闭(try-with-resources), 关闭后不再发送请求
+     *
+     * @param args 参数
+     * @return 文件信息流, ordered 为 true 时按对象名称排序
+     */
+    Stream<FileBasicInfo> listObjectsParallel(ParallelListObjectArgs args);
+
     /**
      * 获取对象元数据
      *
@@ -193,6 +262,40 @@ public interface NFSService extends Closeable {
      */
     InputStream getObjectToStream(ObjectArgs args);
 
+    /**
+     * 范围读取对象(HTTP Range), 服务端返回的范围与请求不一致时抛出异常
+     *
+     * @param args 参数
+     * @return 包含实际返回范围和对象总长度的输入流
+     */
+    RangeInputStream getObjectRange(RangeObjectArgs args);
+
+    /**
+     * 获得对象的只读随机访问通道, 读取时按需发送范围请求
+     *
+     * @param args 参数
+     * @return SeekableByteChannel
+     */
+    SeekableByteChannel getObjectToChannel(ObjectArgs args);
+
+    /**
+     * 将对象写入输出流(不关闭输出流)
+     *
+     * @param args 参数
+     * @param out  输出流
+     * @return 写入的字节数
+     */
+    long transferObject(ObjectArgs args, OutputStream out);
+
+    /**
+     * 将对象写入通道(不关闭通道)
+     *
+     * @param args    参数
+     * @param channel 通道
+     * @return 写入的字节数
+     */
+    long transferObject(ObjectArgs args, WritableByteChannel channel);
+
     /**
      * 获得文件
      *
@@ -201,6 +304,14 @@ public interface NFSService extends Closeable {
      */
     File geObjectToFile(ObjectToFileArgs args);
 
+    /**
+     * 批量下载对象到目录, 边列举边下载, 并发数由 batchConcurrency 控制
+     *
+     * @param args 参数
+     * @return 每个对象的结果(与列举顺序一致)和总体吞吐量
+     */
+    BatchReport<File> downloadObjects(DownloadObjectsArgs args);
+
     /**
      * 删除单个文件
      *
@@ -0,0 +1,435 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.util.FileSystemUtils;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 对象读取的本地磁盘缓存
+ * <pre>
+ * 1.每个客户端驱动实例在 diskCacheDir 下创建独立的缓存目录(opcooc-{driver}-*), 并在目录内的 .lock 文件上持有文件锁,
+ *   启动时只删除锁已释放(所属进程已退出)的同类目录, 不会影响共享该目录的其他进程
+ * 2.缓存项以 bucket/key 为键, 数据文件名随机生成
+ * 3.总大小超过 diskCacheMaxSize 时按最近最少使用淘汰, 超过 diskCacheMaxObjectSize 的对象不缓存
+ * 4.被淘汰的文件在最后一个读取者关闭后才删除
+ * 5.命中后在 cacheRevalidateInterval 内直接读取本地文件, 超时后通过 If-None-Match 条件请求校验ETag
+ * 6.读取期间对象被修改或删除时, 本次读取的数据只返回给调用方, 不写入缓存
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Slf4j
+public class S3DiskCache implements Closeable {
+
+    private static final String DIRECTORY_PREFIX = "opcooc-";
+
+    private static final String LOCK_FILE = ".lock";
+
+    private final AmazonS3 client;
+
+    private final Path directory;
+
+    private final FileChannel lockChannel;
+
+    private final long maxSize;
+
+    private final long maxObjectSize;
+
+    private final long revalidateMillis;
+
+    /**
+     * 按访问顺序排列的缓存项
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 正在从服务端读取的缓存项, 对象被修改时标记为过期
+     */
+    private final Map<String, List<Fill>> fills = new HashMap<>();
+
+    private long totalSize;
+
+    /**
+     * @param client        客户端
+     * @param baseDirectory 缓存根目录(diskCacheDir)
+     * @param driver        客户端驱动名称
+     * @param configuration 配置
+     */
+    public S3DiskCache(AmazonS3 client, Path baseDirectory, String driver, DriverProperties configuration) throws IOException {
+        this.client = client;
+        this.maxSize = configuration.getDiskCacheMaxSize();
+        this.maxObjectSize = Math.min(configuration.getDiskCacheMaxObjectSize(), maxSize);
+        this.revalidateMillis = configuration.getCacheRevalidateInterval().toMillis();
+        Files.createDirectories(baseDirectory);
+        String prefix = DIRECTORY_PREFIX + driver + "-";
+        this.directory = Files.createTempDirectory(baseDirectory, prefix);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (lockChannel.tryLock() == null) {
+            lockChannel.close();
+            throw new IOException("unable to lock disk cache directory " + directory);
+        }
+        deleteAbandoned(baseDirectory, prefix);
+    }
+
+    /**
+     * 删除已退出的进程遗留的缓存目录
+     */
+    private void deleteAbandoned(Path baseDirectory, String prefix) {
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(baseDirectory, prefix + "*")) {
+            for (Path child : children) {
+                if (!child.equals(directory) && isAbandoned(child)) {
+                    FileSystemUtils.deleteRecursively(child);
+                    log.debug("opcooc-storage - delete abandoned cache directory [{}]", child);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("opcooc-storage - clean disk cache directory [{}] failed", baseDirectory, e);
+        }
+    }
+
+    /**
+     * 目录中存在 .lock 文件且可以加锁时, 说明所属进程已经退出
+     * 没有 .lock 文件的目录可能正在被其他进程创建, 不删除
+     */
+    private static boolean isAbandoned(Path child) {
+        Path lockFile = child.resolve(LOCK_FILE);
+        if (!Files.isRegularFile(lockFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // 同一个进程中的其他客户端驱动正在使用
+            return false;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取对象, 未命中或ETag已变化时从服务端下载并写入缓存
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     * @return 对象, 内容来自本地文件
+     */
+    public S3Object getObject(String bucketName, String objectName) throws IOException {
+        String key = key(bucketName, objectName);
+        Fill fill = new Fill();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.validatedAt < revalidateMillis) {
+                return open(bucketName, objectName, entry);
+            }
+            // 在发送请求之前登记, 请求期间的修改会使本次读取的结果不写入缓存
+            fills.computeIfAbsent(key, k -> new ArrayList<>()).add(fill);
+        }
+        try {
+            if (entry != null) {
+                S3Object object = client.getObject(new GetObjectRequest(bucketName, objectName).withNonmatchingETagConstraint(entry.eTag));
+                if (object != null) {
+                    return store(key, object, fill);
+                }
+                // 304 对象未修改
+                synchronized (this) {
+                    if (!fill.stale && entries.get(key) == entry) {
+                        entry.validatedAt = System.currentTimeMillis();
+                        return open(bucketName, objectName, entry);
+                    }
+                }
+            }
+            return store(key, client.getObject(bucketName, objectName), fill);
+        } finally {
+            synchronized (this) {
+                removeFill(key, fill);
+            }
+        }
+    }
+
+    /**
+     * 对象被修改或删除时移除缓存
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     */
+    public synchronized void invalidate(String bucketName, String objectName) {
+        String key = key(bucketName, objectName);
+        markStale(fills.get(key));
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    /**
+     * bucket被删除时移除该bucket下的所有缓存
+     *
+     * @param bucketName bucket名称
+     */
+    public synchronized void invalidateBucket(String bucketName) {
+        String prefix = key(bucketName, "");
+        fills.forEach((key, pending) -> {
+            if (key.startsWith(prefix)) {
+                markStale(pending);
+            }
+        });
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> next = iterator.next();
+            if (next.getKey().startsWith(prefix)) {
+                iterator.remove();
+                release(next.getValue());
+            }
+        }
+    }
+
+    /**
+     * 删除本实例的缓存目录, 已打开的输入流在部分系统上仍然可以读取
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            entries.clear();
+            totalSize = 0;
+        }
+        lockChannel.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    private static String key(String bucketName, String objectName) {
+        // bucket名称不能包含 '/', 拼接后不会冲突
+        return bucketName + "/" + objectName;
+    }
+
+    private static void markStale(List<Fill> pending) {
+        if (pending != null) {
+            pending.forEach(fill -> fill.stale = true);
+        }
+    }
+
+    private void removeFill(String key, Fill fill) {
+        List<Fill> pending = fills.get(key);
+        if (pending != null) {
+            pending.remove(fill);
+            if (pending.isEmpty()) {
+                fills.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 打开缓存文件并增加引用计数, 调用方需持有锁且缓存项未被淘汰
+     */
+    private S3Object open(String bucketName, String objectName, Entry entry) throws IOException {
+        entry.readers++;
+        InputStream in;
+        try {
+            // FileInputStream 可以在传输时取得 FileChannel 直接复制
+            in = new EntryInputStream(entry);
+        } catch (IOException e) {
+            entry.readers--;
+            throw e;
+        }
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(entry.size);
+        metadata.setHeader(Headers.ETAG, entry.eTag);
+        S3Object object = new S3Object();
+        object.setBucketName(bucketName);
+        object.setKey(objectName);
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(in);
+        return object;
+    }
+
+    private S3Object store(String key, S3Object object, Fill fill) throws IOException {
+        ObjectMetadata metadata = object.getObjectMetadata();
+        long size = metadata.getContentLength();
+        if (size > maxObjectSize) {
+            // 对象已变大, 之前的缓存同样失效
+            synchronized (this) {
+                Entry previous = entries.remove(key);
+                if (previous != null) {
+                    release(previous);
+                }
+            }
+            return object;
+        }
+        Path file = directory.resolve(UUID.randomUUID().toString());
+        try (InputStream in = object.getObjectContent()) {
+            Files.copy(in, file);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        Entry entry = new Entry(file, size, metadata.getETag());
+        synchronized (this) {
+            // 先打开再加入索引, 避免在返回前被淘汰
+            S3Object cached = open(object.getBucketName(), object.getKey(), entry);
+            if (fill.stale) {
+                // 读取期间对象已被修改, 数据只返回给本次调用, 关闭后删除
+                entry.evicted = true;
+                log.debug("opcooc-storage - object [{}] changed while filling disk cache", key);
+            } else {
+                put(key, entry);
+            }
+            return cached;
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        totalSize += entry.size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest != entry) {
+                iterator.remove();
+                release(eldest);
+            }
+        }
+    }
+
+    /**
+     * 缓存项已经移出索引, 没有读取者时删除文件, 否则由最后一个读取者关闭时删除
+     */
+    private void release(Entry entry) {
+        totalSize -= entry.size;
+        entry.evicted = true;
+        if (entry.readers == 0) {
+            delete(entry);
+        }
+    }
+
+    private synchronized void closeReader(Entry entry) {
+        entry.readers--;
+        if (entry.evicted && entry.readers == 0) {
+            delete(entry);
+        }
+    }
+
+    private static void delete(Entry entry) {
+        try {
+            Files.deleteIfExists(entry.file);
+        } catch (IOException e) {
+            log.warn("opcooc-storage - delete cache file [{}] failed", entry.file, e);
+        }
+    }
+
+    /**
+     * 缓存文件的输入流, 关闭时释放对缓存项的引用
+     */
+    private class EntryInputStream extends FileInputStream {
+
+        private final Entry entry;
+
+        private boolean closed;
+
+        private EntryInputStream(Entry entry) throws IOException {
+            super(entry.file.toFile());
+            this.entry = entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean first;
+            synchronized (this) {
+                first = !closed;
+                closed = true;
+            }
+            try {
+                super.close();
+            } finally {
+                if (first) {
+                    closeReader(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次从服务端读取并写入缓存的过程
+     */
+    private static class Fill {
+
+        private boolean stale;
+    }
+
+    private static class Entry {
+
+        private final Path file;
+
+        private final long size;
+
+        private final String eTag;
+
+        private long validatedAt = System.currentTimeMillis();
+
+        /**
+         * 打开的输入流数量
+         */
+        private int readers;
+
+        /**
+         * 已移出索引, 等待读取者关闭后删除
+         */
+        private boolean evicted;
+
+        private Entry(Path file, long size, String eTag) {
+            this.file = file;
+            this.size = size;
+            this.eTag = eTag;
+        }
+    }
+
+}
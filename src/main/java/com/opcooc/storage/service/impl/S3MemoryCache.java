@@ -0,0 +1,589 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+import com.opcooc.storage.toolkit.StorageChecker;
+
+/**
+ * 小对象的堆外内存缓存
+ * <pre>
+ * 1.内存按 1MB 的 slab 从堆外按需申请, 总量不超过 memoryCacheMaxSize
+ * 2.slab 切分为同一规格的槽位, 规格从 1KB 开始按2的幂递增, 对象放入能容纳它的最小规格
+ * 3.slab 的槽位全部空闲时归还到全局空闲池, 可以重新切分给其他规格
+ * 4.没有空闲槽位且不能再申请 slab 时, 如果全局最近最少使用的对象属于其他规格, 回收它所在的整个 slab, 否则淘汰本规格最近最少使用的对象
+ * 5.命中时返回只读的槽位视图, 不复制到堆内存; 输入流关闭前槽位不会被淘汰复用
+ * 6.超过 memoryCacheMaxObjectSize 的对象不缓存, 命中后的ETag校验规则与磁盘缓存一致
+ * 7.未命中时通过 ObjectLoader 读取, 同时开启磁盘缓存时由磁盘缓存提供数据
+ * 8.关闭时释放所有 slab, 之后的读取直接通过 ObjectLoader, 不再缓存
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class S3MemoryCache implements Closeable {
+
+    private static final int SLAB_SIZE = StorageChecker.MEMORY_CACHE_SLAB_SIZE;
+
+    private static final int MIN_SLOT_SIZE = 1024;
+
+    private final AmazonS3 client;
+
+    private final ObjectLoader loader;
+
+    private final long maxObjectSize;
+
+    private final long revalidateMillis;
+
+    private final int maxSlabs;
+
+    private int slabCount;
+
+    /**
+     * 访问计数, 用于比较不同规格中对象的访问先后
+     */
+    private long clock;
+
+    /**
+     * 按访问顺序排列的所有缓存项
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 每个规格按访问顺序排列的缓存项
+     */
+    private final List<LinkedHashMap<String, Entry>> classEntries;
+
+    /**
+     * 每个规格的空闲槽位
+     */
+    private final List<Deque<Slot>> freeSlots;
+
+    /**
+     * 全部槽位都空闲的 slab
+     */
+    private final Deque<Slab> freeSlabs = new ArrayDeque<>();
+
+    /**
+     * 正在从服务端读取的缓存项, 对象被修改时标记为过期
+     */
+    private final Map<String, List<Fill>> fills = new HashMap<>();
+
+    /**
+     * 关闭后不再缓存, 读取直接通过 ObjectLoader
+     */
+    private boolean closed;
+
+    /**
+     * @param client        客户端
+     * @param loader        未命中时的读取方式(服务端或者下一级缓存)
+     * @param configuration 配置
+     */
+    public S3MemoryCache(AmazonS3 client, ObjectLoader loader, DriverProperties configuration) {
+        this.client = client;
+        this.loader = loader;
+        this.maxObjectSize = configuration.getMemoryCacheMaxObjectSize();
+        this.revalidateMillis = configuration.getCacheRevalidateInterval().toMillis();
+        this.maxSlabs = (int) Math.max(1, configuration.getMemoryCacheMaxSize() / SLAB_SIZE);
+        int classes = sizeClass(maxObjectSize) + 1;
+        this.classEntries = new ArrayList<>(classes);
+        this.freeSlots = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            classEntries.add(new LinkedHashMap<>(16, 0.75f, true));
+            freeSlots.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * 读取对象, 未命中或ETag已变化时从服务端下载, 不超过大小上限的对象写入缓存
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     * @return InputStream
+     */
+    public InputStream get(String bucketName, String objectName) throws IOException {
+        String key = key(bucketName, objectName);
+        Fill fill = new Fill();
+        Entry entry;
+        synchronized (this) {
+            entry = closed ? null : lookup(key);
+            if (entry != null && System.currentTimeMillis() - entry.validatedAt < revalidateMillis) {
+                return new SlotInputStream(entry);
+            }
+            // 在发送请求之前登记, 请求期间的修改会使本次读取的结果不写入缓存
+            fills.computeIfAbsent(key, k -> new ArrayList<>()).add(fill);
+        }
+        try {
+            if (entry != null) {
+                S3Object object = client.getObject(new GetObjectRequest(bucketName, objectName).withNonmatchingETagConstraint(entry.eTag));
+                if (object != null) {
+                    return store(key, object, fill);
+                }
+                // 304 对象未修改
+                synchronized (this) {
+                    if (!fill.stale && entries.get(key) == entry) {
+                        entry.validatedAt = System.currentTimeMillis();
+                        return new SlotInputStream(entry);
+                    }
+                }
+            }
+            return store(key, loader.load(bucketName, objectName), fill);
+        } finally {
+            synchronized (this) {
+                removeFill(key, fill);
+            }
+        }
+    }
+
+    /**
+     * 对象被修改或删除时移除缓存
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     */
+    public synchronized void invalidate(String bucketName, String objectName) {
+        String key = key(bucketName, objectName);
+        markStale(fills.get(key));
+        remove(key);
+    }
+
+    /**
+     * bucket被删除时移除该bucket下的所有缓存
+     *
+     * @param bucketName bucket名称
+     */
+    public synchronized void invalidateBucket(String bucketName) {
+        String prefix = key(bucketName, "");
+        fills.forEach((key, pending) -> {
+            if (key.startsWith(prefix)) {
+                markStale(pending);
+            }
+        });
+        List<String> keys = new ArrayList<>();
+        for (String key : entries.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        keys.forEach(this::remove);
+    }
+
+    /**
+     * 释放所有 slab 的引用, 堆外内存在最后一个打开的输入流关闭后由 GC 回收
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        entries.values().forEach(entry -> entry.evicted = true);
+        entries.clear();
+        classEntries.forEach(Map::clear);
+        freeSlots.forEach(Deque::clear);
+        freeSlabs.clear();
+        fills.values().forEach(S3MemoryCache::markStale);
+        slabCount = 0;
+    }
+
+    private static String key(String bucketName, String objectName) {
+        return bucketName + "/" + objectName;
+    }
+
+    /**
+     * 能容纳指定长度的最小规格
+     */
+    private static int sizeClass(long length) {
+        int sizeClass = 0;
+        long slotSize = MIN_SLOT_SIZE;
+        while (slotSize < length) {
+            slotSize <<= 1;
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static void markStale(List<Fill> pending) {
+        if (pending != null) {
+            pending.forEach(fill -> fill.stale = true);
+        }
+    }
+
+    private void removeFill(String key, Fill fill) {
+        List<Fill> pending = fills.get(key);
+        if (pending != null) {
+            pending.remove(fill);
+            if (pending.isEmpty()) {
+                fills.remove(key);
+            }
+        }
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            // 更新该规格内的访问顺序
+            classEntries.get(entry.slot.slab.sizeClass).get(key);
+            entry.accessedAt = ++clock;
+        }
+        return entry;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            evict(entry);
+        }
+    }
+
+    /**
+     * 缓存项移出索引, 没有打开的输入流时立即释放槽位
+     */
+    private void evict(Entry entry) {
+        entries.remove(entry.key);
+        classEntries.get(entry.slot.slab.sizeClass).remove(entry.key);
+        entry.slot.slab.entries.remove(entry);
+        entry.evicted = true;
+        if (entry.readers == 0) {
+            freeSlot(entry.slot);
+        } else {
+            entry.slot.slab.pending++;
+        }
+    }
+
+    private synchronized void closeReader(Entry entry) {
+        entry.readers--;
+        if (entry.evicted && entry.readers == 0 && !closed) {
+            entry.slot.slab.pending--;
+            freeSlot(entry.slot);
+        }
+    }
+
+    private void freeSlot(Slot slot) {
+        Slab slab = slot.slab;
+        freeSlots.get(slab.sizeClass).push(slot);
+        slab.free++;
+        if (slab.free == slab.slotCount) {
+            // 整个 slab 空闲, 归还到全局空闲池
+            freeSlots.get(slab.sizeClass).removeIf(free -> free.slab == slab);
+            freeSlabs.push(slab);
+        }
+    }
+
+    private InputStream store(String key, S3Object object, Fill fill) throws IOException {
+        ObjectMetadata metadata = object.getObjectMetadata();
+        long length = metadata.getContentLength();
+        if (length > maxObjectSize) {
+            // 对象已变大, 之前的缓存同样失效
+            synchronized (this) {
+                remove(key);
+            }
+            return object.getObjectContent();
+        }
+        byte[] data;
+        try (InputStream in = object.getObjectContent()) {
+            data = IOUtils.toByteArray(in);
+        }
+        synchronized (this) {
+            if (!fill.stale && !closed) {
+                put(key, data, metadata.getETag());
+            }
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    private void put(String key, byte[] data, String eTag) {
+        remove(key);
+        int sizeClass = sizeClass(data.length);
+        Slot slot = allocate(sizeClass);
+        if (slot == null) {
+            return;
+        }
+        ByteBuffer buffer = slot.buffer.duplicate();
+        buffer.clear();
+        buffer.put(data);
+        Entry entry = new Entry(key, slot, data.length, eTag);
+        entry.accessedAt = ++clock;
+        entries.put(key, entry);
+        classEntries.get(sizeClass).put(key, entry);
+        slot.slab.entries.add(entry);
+    }
+
+    /**
+     * 分配槽位, 依次尝试: 本规格的空闲槽位, 全局空闲 slab, 申请新的 slab, 回收其他规格的 slab, 淘汰本规格的对象
+     * 都不可行(相关对象都在被读取)时返回 null
+     */
+    private Slot allocate(int sizeClass) {
+        Deque<Slot> free = freeSlots.get(sizeClass);
+        while (true) {
+            Slot slot = free.poll();
+            if (slot != null) {
+                slot.slab.free--;
+                return slot;
+            }
+            Slab slab = freeSlabs.poll();
+            if (slab == null && slabCount < maxSlabs) {
+                slab = new Slab(ByteBuffer.allocateDirect(SLAB_SIZE));
+                slabCount++;
+            }
+            if (slab == null) {
+                slab = reclaim(sizeClass);
+            }
+            if (slab != null) {
+                slab.assign(sizeClass);
+                free.addAll(slab.slots());
+                continue;
+            }
+            // 淘汰后槽位可能随整个 slab 归还到空闲池, 重新分配
+            Entry eldest = eldest(classEntries.get(sizeClass).values().iterator());
+            if (eldest == null) {
+                return null;
+            }
+            evict(eldest);
+        }
+    }
+
+    /**
+     * 全局最近最少使用的对象属于其他规格且比本规格的对象更久未被访问时, 回收它所在的 slab
+     */
+    private Slab reclaim(int sizeClass) {
+        Entry global = eldest(entries.values().iterator());
+        if (global == null || global.slot.slab.sizeClass == sizeClass) {
+            return null;
+        }
+        Entry local = eldest(classEntries.get(sizeClass).values().iterator());
+        if (local != null && local.accessedAt < global.accessedAt) {
+            return null;
+        }
+        Slab slab = global.slot.slab;
+        if (slab.pending > 0 || slab.entries.stream().anyMatch(entry -> entry.readers > 0)) {
+            return null;
+        }
+        for (Entry entry : new ArrayList<>(slab.entries)) {
+            entries.remove(entry.key);
+            classEntries.get(slab.sizeClass).remove(entry.key);
+            entry.evicted = true;
+        }
+        slab.entries.clear();
+        freeSlots.get(slab.sizeClass).removeIf(free -> free.slab == slab);
+        return slab;
+    }
+
+    /**
+     * 第一个没有被读取的缓存项
+     */
+    private static Entry eldest(Iterator<Entry> iterator) {
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.readers == 0) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 未命中时读取对象
+     */
+    @FunctionalInterface
+    public interface ObjectLoader {
+
+        /**
+         * 读取对象
+         *
+         * @param bucketName bucket名称
+         * @param objectName 对象名称
+         * @return 对象
+         */
+        S3Object load(String bucketName, String objectName) throws IOException;
+    }
+
+    /**
+     * 槽位的只读输入流, 关闭前槽位不会被复用
+     */
+    private class SlotInputStream extends InputStream {
+
+        private final Entry entry;
+
+        private final ByteBuffer buffer;
+
+        private boolean closed;
+
+        /**
+         * 调用方需持有缓存的锁
+         */
+        private SlotInputStream(Entry entry) {
+            this.entry = entry;
+            this.buffer = entry.slot.buffer.asReadOnlyBuffer();
+            buffer.clear().limit(entry.length);
+            entry.readers++;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            closeReader(entry);
+        }
+    }
+
+    /**
+     * 一次从服务端读取并写入缓存的过程
+     */
+    private static class Fill {
+
+        private boolean stale;
+    }
+
+    private static class Slab {
+
+        private final ByteBuffer buffer;
+
+        private int sizeClass;
+
+        private int slotCount;
+
+        /**
+         * 空闲槽位数量
+         */
+        private int free;
+
+        /**
+         * 已移出索引但仍在被读取的槽位数量
+         */
+        private int pending;
+
+        private final Set<Entry> entries = new HashSet<>();
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void assign(int sizeClass) {
+            this.sizeClass = sizeClass;
+            this.slotCount = SLAB_SIZE / (MIN_SLOT_SIZE << sizeClass);
+            this.free = slotCount;
+        }
+
+        private List<Slot> slots() {
+            int slotSize = MIN_SLOT_SIZE << sizeClass;
+            List<Slot> slots = new ArrayList<>(slotCount);
+            for (int offset = 0; offset + slotSize <= SLAB_SIZE; offset += slotSize) {
+                ByteBuffer view = buffer.duplicate();
+                view.limit(offset + slotSize).position(offset);
+                slots.add(new Slot(this, view.slice()));
+            }
+            return slots;
+        }
+    }
+
+    private static class Slot {
+
+        private final Slab slab;
+
+        private final ByteBuffer buffer;
+
+        private Slot(Slab slab, ByteBuffer buffer) {
+            this.slab = slab;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Entry {
+
+        private final String key;
+
+        private final Slot slot;
+
+        private final int length;
+
+        private final String eTag;
+
+        private long validatedAt = System.currentTimeMillis();
+
+        private long accessedAt;
+
+        /**
+         * 打开的输入流数量
+         */
+        private int readers;
+
+        /**
+         * 已移出索引, 等待读取者关闭后释放槽位
+         */
+        private boolean evicted;
+
+        private Entry(String key, Slot slot, int length, String eTag) {
+            this.key = key;
+            this.slot = slot;
+            this.length = length;
+            this.eTag = eTag;
+        }
+    }
+
+}
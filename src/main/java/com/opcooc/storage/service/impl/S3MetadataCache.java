@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 对象元数据缓存
+ * <pre>
+ * 1.缓存 HEAD 请求的结果(包括对象不存在), 在 metadataCacheTtl 内有效,
+ *   数量超过 metadataCacheMaxSize 时淘汰最近最少使用的缓存项
+ * 2.正在进行 HEAD 请求的对象记录代次, 对象被修改时代次加一,
+ *   代次已变化的请求结果不写入缓存, 之后到达的调用方也不再合并到该请求
+ * 3.metadataCacheTtl 为 0 时不缓存结果, 只记录代次
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class S3MetadataCache {
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * 正在进行 HEAD 请求的对象的代次
+     */
+    private final Map<String, Generation> generations = new HashMap<>();
+
+    public S3MetadataCache(DriverProperties configuration) {
+        this.ttlMillis = configuration.getMetadataCacheTtl() == null ? 0 : configuration.getMetadataCacheTtl().toMillis();
+        int maxSize = configuration.getMetadataCacheMaxSize() == null ? 0 : configuration.getMetadataCacheMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     * @return 未命中或已过期时返回 null
+     */
+    public synchronized Entry lookup(String bucketName, String objectName) {
+        if (ttlMillis <= 0) {
+            return null;
+        }
+        String key = key(bucketName, objectName);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiresAt) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 开始 HEAD 请求, 结束后需要调用 {@link #end(String, String)}
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     * @return 当前代次
+     */
+    public synchronized long begin(String bucketName, String objectName) {
+        Generation generation = generations.computeIfAbsent(key(bucketName, objectName), key -> new Generation());
+        generation.loads++;
+        return generation.value;
+    }
+
+    /**
+     * 结束 HEAD 请求
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     */
+    public synchronized void end(String bucketName, String objectName) {
+        String key = key(bucketName, objectName);
+        Generation generation = generations.get(key);
+        if (generation != null && --generation.loads == 0) {
+            generations.remove(key);
+        }
+    }
+
+    /**
+     * 写入缓存, 请求开始后对象被修改时不写入
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     * @param metadata   元数据, 对象不存在时为 null
+     * @param generation 请求开始时的代次
+     */
+    public synchronized void put(String bucketName, String objectName, ObjectMetadata metadata, long generation) {
+        String key = key(bucketName, objectName);
+        Generation current = generations.get(key);
+        if (ttlMillis > 0 && (current == null || current.value == generation)) {
+            entries.put(key, new Entry(metadata == null ? null : metadata.clone(), System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * 对象被修改或删除时移除缓存
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     */
+    public synchronized void invalidate(String bucketName, String objectName) {
+        String key = key(bucketName, objectName);
+        entries.remove(key);
+        Generation generation = generations.get(key);
+        if (generation != null) {
+            generation.value++;
+        }
+    }
+
+    /**
+     * bucket被删除时移除该bucket下的所有缓存
+     *
+     * @param bucketName bucket名称
+     */
+    public synchronized void invalidateBucket(String bucketName) {
+        String prefix = key(bucketName, "");
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+        generations.forEach((key, generation) -> {
+            if (key.startsWith(prefix)) {
+                generation.value++;
+            }
+        });
+    }
+
+    private static String key(String bucketName, String objectName) {
+        return bucketName + "/" + objectName;
+    }
+
+    private static class Generation {
+
+        private long value;
+
+        private int loads;
+    }
+
+    public static class Entry {
+
+        private final ObjectMetadata metadata;
+
+        private final long expiresAt;
+
+        private Entry(ObjectMetadata metadata, long expiresAt) {
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return 元数据副本, 对象不存在时为 null
+         */
+        public ObjectMetadata getMetadata() {
+            return metadata == null ? null : metadata.clone();
+        }
+    }
+
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpStatus;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.internal.Mimetypes;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.opcooc.storage.args.CopyObjectArgs;
+import com.opcooc.storage.args.ObjectArgs;
+import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.io.FileChannelInputStream;
+import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+import com.opcooc.storage.toolkit.StorageChecker;
+import com.opcooc.storage.toolkit.StorageUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 分片上传
+ * 1.按照配置的分片大小切分文件
+ * 2.在客户端驱动共享的线程池中并发上传分片, 所有分片通过同一个 FileChannel 定位读取
+ * 3.全部成功后合并分片, 任意分片失败则等待正在上传的分片结束后取消本次分片上传
+ * 4.文件上传可开启断点续传, 重试时只上传缺失或与断点记录不一致的分片
+ * 5.未知长度的流使用可复用的分片缓冲区循环读取, 内存占用约为 分片大小 x 并发数
+ * 6.大对象复制使用服务端分片复制
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Slf4j
+public class S3MultipartUploader {
+
+    /**
+     * 单个分片缓冲区的最大长度
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private final AmazonS3 client;
+
+    private final DriverProperties configuration;
+
+    private final ExecutorService executor;
+
+    public S3MultipartUploader(AmazonS3 client, DriverProperties configuration, ExecutorService executor) {
+        this.client = client;
+        this.configuration = configuration;
+        this.executor = executor;
+    }
+
+    /**
+     * 分片上传文件
+     * <pre>
+     * 开启断点续传时不会在失败后取消分片上传, 而是保留本地断点记录,
+     * 重试时通过 ListParts 查询服务端已有的分片, 只上传缺失的分片.
+     * </pre>
+     *
+     * @param args 参数
+     * @return 文件上传后的信息
+     */
+    public FileBasicInfo uploadFile(UploadArgs args) {
+        File file = args.getFile();
+        long contentLength = file.length();
+        long partSize = StorageUtils.determinePartSize(contentLength, configuration.getPartSize());
+        int partCount = StorageUtils.partCount(contentLength, partSize);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(args.getContentType() == null ? Mimetypes.getInstance().getMimetype(file) : args.getContentType());
+
+        boolean resumable = Boolean.TRUE.equals(args.getResumable());
+        UploadCheckpoint checkpoint = resumable ? openCheckpoint(args, metadata, partSize) : null;
+        String uploadId = checkpoint == null ? initiate(args, metadata) : checkpoint.getUploadId();
+        Map<Integer, PartETag> uploaded = checkpoint == null ? new HashMap<>() : listParts(args, checkpoint, contentLength, partSize);
+
+        log.debug("opcooc-storage - multipart upload [{}] start, part size [{}], part count [{}], uploaded [{}]",
+                args.getObjectName(), partSize, partCount, uploaded.size());
+        List<Future<PartETag>> futures = new ArrayList<>(partCount);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < partCount; i++) {
+                int partNumber = i + 1;
+                if (uploaded.containsKey(partNumber)) {
+                    futures.add(CompletableFuture.completedFuture(uploaded.get(partNumber)));
+                    continue;
+                }
+                long offset = i * partSize;
+                long size = Math.min(partSize, contentLength - offset);
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(args.getBucketName())
+                        .withKey(args.getObjectName())
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withInputStream(new FileChannelInputStream(channel, offset, size))
+                        .withPartSize(size);
+                futures.add(executor.submit(() -> {
+                    checkCancelled(cancelled);
+                    PartETag partETag = client.uploadPart(request).getPartETag();
+                    if (checkpoint != null) {
+                        checkpoint.addPart(partNumber, partETag.getETag());
+                    }
+                    return partETag;
+                }));
+            }
+            List<PartETag> partETags = StorageUtils.awaitAll(futures, cancelled);
+            CompleteMultipartUploadResult result = complete(args, uploadId, partETags);
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+            return StorageUtils.createFileBasicInfo(result, args, contentLength);
+        } catch (IOException | RuntimeException e) {
+            // 取消分片上传之前等待正在上传的分片结束, 否则之后完成的分片会继续占用服务端存储
+            StorageUtils.awaitQuietly(futures, cancelled);
+            if (checkpoint == null) {
+                abort(args, uploadId);
+            } else {
+                checkpoint.close();
+                log.info("opcooc-storage - multipart upload [{}] interrupted, upload id [{}] kept for resume", args.getObjectName(), uploadId);
+            }
+            throw e instanceof StorageException ? (StorageException) e : new StorageException(e);
+        }
+    }
+
+    /**
+     * 读取或创建断点记录, 源文件变化或服务端已不存在该分片上传时重新开始
+     */
+    private UploadCheckpoint openCheckpoint(UploadArgs args, ObjectMetadata metadata, long partSize) {
+        Path path = UploadCheckpoint.resolve(configuration.getCheckpointDir(), configuration.getEndpoint(), args);
+        UploadCheckpoint checkpoint = UploadCheckpoint.load(path);
+        if (checkpoint != null && checkpoint.matches(args, partSize) && uploadExists(args, checkpoint.getUploadId())) {
+            log.debug("opcooc-storage - resume multipart upload [{}], upload id [{}]", args.getObjectName(), checkpoint.getUploadId());
+            return checkpoint;
+        }
+        if (checkpoint != null) {
+            abort(args, checkpoint.getUploadId());
+            checkpoint.delete();
+        }
+        String uploadId = initiate(args, metadata);
+        try {
+            return UploadCheckpoint.create(path, uploadId, args, partSize);
+        } catch (IOException e) {
+            abort(args, uploadId);
+            throw new StorageException(e);
+        }
+    }
+
+    private boolean uploadExists(UploadArgs args, String uploadId) {
+        try {
+            client.listParts(new ListPartsRequest(args.getBucketName(), args.getObjectName(), uploadId).withMaxParts(1));
+            return true;
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                return false;
+            }
+            throw new StorageException(e);
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 查询服务端已经上传完成且大小正确的分片
+     * <p>
+     * 断点记录中有该分片的ETag但与服务端不一致时, 说明分片被其他上传覆盖, 重新上传该分片
+     */
+    private Map<Integer, PartETag> listParts(UploadArgs args, UploadCheckpoint checkpoint, long contentLength, long partSize) {
+        Map<Integer, PartETag> parts = new HashMap<>();
+        Map<Integer, String> journal = checkpoint.getParts();
+        ListPartsRequest request = new ListPartsRequest(args.getBucketName(), args.getObjectName(), checkpoint.getUploadId());
+        try {
+            PartListing listing;
+            do {
+                listing = client.listParts(request);
+                for (PartSummary part : listing.getParts()) {
+                    long offset = (part.getPartNumber() - 1) * partSize;
+                    String journaled = journal.get(part.getPartNumber());
+                    if (journaled != null && !StorageUtils.eTagEquals(journaled, part.getETag())) {
+                        log.warn("opcooc-storage - part [{}] of multipart upload [{}] does not match the checkpoint, upload it again",
+                                part.getPartNumber(), args.getObjectName());
+                        continue;
+                    }
+                    if (offset < contentLength && part.getSize() == Math.min(partSize, contentLength - offset)) {
+                        parts.put(part.getPartNumber(), new PartETag(part.getPartNumber(), part.getETag()));
+                    }
+                }
+                request.setPartNumberMarker(listing.getNextPartNumberMarker());
+            } while (listing.isTruncated());
+            return parts;
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 分片上传未知长度的流
+     * <pre>
+     * 流的内容依次读入 {@link DriverProperties#getConcurrency()} 个可复用的缓冲区, 每个缓冲区作为一个分片上传,
+     * 所有缓冲区都在上传中时阻塞读取, 因此内存占用不随对象大小增长.
+     * 如果流的长度不足一个分片则直接使用普通上传.
+     * </pre>
+     *
+     * @param args 参数
+     * @return 文件上传后的信息
+     */
+    public FileBasicInfo uploadStream(UploadArgs args) {
+        InputStream stream = args.getStream();
+        int bufferSize = (int) Math.min(configuration.getPartSize(), MAX_BUFFER_SIZE);
+        byte[] buffer = new byte[bufferSize];
+        int length = read(stream, buffer);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(args.getContentType());
+
+        if (length < bufferSize) {
+            metadata.setContentLength(length);
+            try {
+                PutObjectResult result = client.putObject(args.getBucketName(), args.getObjectName(), new ByteArrayInputStream(buffer, 0, length), metadata);
+                return StorageUtils.createFileBasicInfo(result, args, (long) length);
+            } catch (Exception e) {
+                throw new StorageException(e);
+            }
+        }
+
+        String uploadId = initiate(args, metadata);
+        log.debug("opcooc-storage - multipart stream upload [{}] start, part size [{}]", args.getObjectName(), bufferSize);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<PartETag>> futures = new ArrayList<>();
+        try {
+            BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(configuration.getConcurrency());
+            int allocated = 1;
+            long contentLength = 0;
+            while (length > 0 && !failed.get()) {
+                int partNumber = futures.size() + 1;
+                if (partNumber > StorageChecker.MAX_PART_COUNT) {
+                    throw new StorageException("object [%s] exceeds the maximum of %s parts", args.getObjectName(), StorageChecker.MAX_PART_COUNT);
+                }
+                byte[] part = buffer;
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(args.getBucketName())
+                        .withKey(args.getObjectName())
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withInputStream(new ByteArrayInputStream(part, 0, length))
+                        .withPartSize(length);
+                futures.add(executor.submit(() -> {
+                    try {
+                        checkCancelled(failed);
+                        return client.uploadPart(request).getPartETag();
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        buffers.offer(part);
+                    }
+                }));
+                contentLength += length;
+
+                buffer = buffers.poll();
+                if (buffer == null && allocated < configuration.getConcurrency()) {
+                    buffer = new byte[bufferSize];
+                    allocated++;
+                } else if (buffer == null) {
+                    buffer = buffers.take();
+                }
+                length = read(stream, buffer);
+            }
+            List<PartETag> partETags = StorageUtils.awaitAll(futures, failed);
+            CompleteMultipartUploadResult result = complete(args, uploadId, partETags);
+            return StorageUtils.createFileBasicInfo(result, args, contentLength);
+        } catch (InterruptedException e) {
+            StorageUtils.awaitQuietly(futures, failed);
+            abort(args, uploadId);
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+        } catch (RuntimeException e) {
+            StorageUtils.awaitQuietly(futures, failed);
+            abort(args, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * 尽可能填满缓冲区
+     *
+     * @param stream 输入流
+     * @param buffer 缓冲区
+     * @return 读取的长度, 小于缓冲区长度表示流已经结束
+     */
+    private static int read(InputStream stream, byte[] buffer) {
+        try {
+            return stream.readNBytes(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 服务端分片复制
+     * <pre>
+     * 按分片范围并发执行 UploadPartCopy, 数据不经过本地, 全部完成后合并分片.
+     * 每个分片都要求源对象 ETag 不变, 复制期间源对象被修改时取消本次复制.
+     * </pre>
+     *
+     * @param args           参数
+     * @param sourceMetadata 源对象元数据
+     */
+    public void copyObject(CopyObjectArgs args, ObjectMetadata sourceMetadata) {
+        ObjectArgs source = args.getSource();
+        long contentLength = sourceMetadata.getContentLength();
+        long partSize = StorageUtils.determinePartSize(contentLength, configuration.getCopyPartSize());
+        int partCount = StorageUtils.partCount(contentLength, partSize);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setUserMetadata(sourceMetadata.getUserMetadata());
+        metadata.setContentType(sourceMetadata.getContentType());
+        metadata.setContentEncoding(sourceMetadata.getContentEncoding());
+        metadata.setContentDisposition(sourceMetadata.getContentDisposition());
+        metadata.setCacheControl(sourceMetadata.getCacheControl());
+        String uploadId = initiate(args, metadata);
+
+        log.debug("opcooc-storage - multipart copy [{}] to [{}] start, part size [{}], part count [{}]",
+                source.getObjectName(), args.getObjectName(), partSize, partCount);
+        List<Future<PartETag>> futures = new ArrayList<>(partCount);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        try {
+            for (int i = 0; i < partCount; i++) {
+                long offset = i * partSize;
+                CopyPartRequest request = new CopyPartRequest()
+                        .withSourceBucketName(source.getBucketName())
+                        .withSourceKey(source.getObjectName())
+                        .withDestinationBucketName(args.getBucketName())
+                        .withDestinationKey(args.getObjectName())
+                        .withUploadId(uploadId)
+                        .withPartNumber(i + 1)
+                        .withFirstByte(offset)
+                        .withLastByte(Math.min(offset + partSize, contentLength) - 1)
+                        .withMatchingETagConstraint(sourceMetadata.getETag());
+                futures.add(executor.submit(() -> {
+                    checkCancelled(cancelled);
+                    CopyPartResult result = client.copyPart(request);
+                    if (result == null) {
+                        throw new StorageException("bucket name: [%s], object name [%s] changed during copy", source.getBucketName(), source.getObjectName());
+                    }
+                    return result.getPartETag();
+                }));
+            }
+            List<PartETag> partETags = StorageUtils.awaitAll(futures, cancelled);
+            complete(args, uploadId, partETags);
+        } catch (RuntimeException e) {
+            StorageUtils.awaitQuietly(futures, cancelled);
+            abort(args, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * 其他分片已经失败时不再发送请求
+     */
+    private static void checkCancelled(AtomicBoolean cancelled) {
+        if (cancelled.get()) {
+            throw new CancellationException("multipart upload cancelled");
+        }
+    }
+
+    private String initiate(ObjectArgs args, ObjectMetadata metadata) {
+        try {
+            return client.initiateMultipartUpload(new InitiateMultipartUploadRequest(args.getBucketName(), args.getObjectName(), metadata)).getUploadId();
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private CompleteMultipartUploadResult complete(ObjectArgs args, String uploadId, List<PartETag> partETags) {
+        try {
+            return client.completeMultipartUpload(new CompleteMultipartUploadRequest(args.getBucketName(), args.getObjectName(), uploadId, partETags));
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private void abort(ObjectArgs args, String uploadId) {
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(args.getBucketName(), args.getObjectName(), uploadId));
+        } catch (Exception e) {
+            log.warn("opcooc-storage - abort multipart upload [{}] failed, upload id [{}]", args.getObjectName(), uploadId, e);
+        }
+    }
+
+}
@@ -21,11 +21,50 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.auth.AWSCredentials;
@@ -34,7 +73,9 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.BucketPolicy;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
@@ -54,17 +95,27 @@ import com.opcooc.storage.args.BucketArgs;
 import com.opcooc.storage.args.BucketPolicyArgs;
 import com.opcooc.storage.args.CopyObjectArgs;
 import com.opcooc.storage.args.DeleteObjectArgs;
+import com.opcooc.storage.args.DownloadObjectsArgs;
 import com.opcooc.storage.args.ListObjectArgs;
 import com.opcooc.storage.args.ObjectAclArgs;
 import com.opcooc.storage.args.ObjectArgs;
 import com.opcooc.storage.args.ObjectToFileArgs;
+import com.opcooc.storage.args.ParallelListObjectArgs;
 import com.opcooc.storage.args.PresignedUrlArgs;
+import com.opcooc.storage.args.RangeObjectArgs;
 import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.args.UploadDirectoryArgs;
 import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.io.RangeInputStream;
+import com.opcooc.storage.io.StreamTransfer;
+import com.opcooc.storage.model.BatchReport;
+import com.opcooc.storage.model.BatchResult;
 import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.model.ObjectListPage;
 import com.opcooc.storage.model.UrlResult;
 import com.opcooc.storage.service.NFSService;
 import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+import com.opcooc.storage.support.SingleFlight;
 import com.opcooc.storage.toolkit.ContentTypeUtils;
 import com.opcooc.storage.toolkit.StorageUtils;
 
@@ -87,21 +138,167 @@ public class S3NFSService implements NFSService {
      */
     private final DriverProperties configuration;
 
+    /**
+     * 分片任务线程池(同一个客户端驱动共享)
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 批量任务线程池(同一个客户端驱动共享)
+     */
+    private final ExecutorService batchExecutor;
+
+    /**
+     * 列举请求线程池(同一个客户端驱动共享)
+     */
+    private final ExecutorService listExecutor;
+
+    /**
+     * 分片上传
+     */
+    private final S3MultipartUploader multipartUploader;
+
+    /**
+     * 分段下载
+     */
+    private final S3RangeDownloader rangeDownloader;
+
+    /**
+     * 本地磁盘缓存, 未配置缓存目录时为 null
+     */
+    private final S3DiskCache diskCache;
+
+    /**
+     * 小对象内存缓存, 未开启时为 null
+     */
+    private final S3MemoryCache memoryCache;
+
+    /**
+     * 对象元数据缓存, 未开启时只记录正在进行的 HEAD 请求的代次
+     */
+    private final S3MetadataCache metadataCache;
+
+    /**
+     * 已确认存在的 bucket 数量上限, 超过时淘汰最近最少使用的记录
+     */
+    private static final int MAX_CACHED_BUCKETS = 10000;
+
+    /**
+     * 没有可用的公共前缀时生成分割点使用的字符(按 UTF-8 顺序排列)
+     */
+    private static final String SPLIT_CHARACTERS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    /**
+     * 已确认存在的 bucket 及其缓存过期时间
+     */
+    private final Map<String, Long> existingBuckets = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CACHED_BUCKETS;
+        }
+    });
+
+    /**
+     * 合并同一个对象的并发 HEAD 请求
+     */
+    private final SingleFlight<ObjectMetadata> headFlights = new SingleFlight<>();
+
+    /**
+     * 合并同一个对象的并发完整读取, 未开启时为 null
+     */
+    private final S3ReadCoalescer readCoalescer;
+
     public S3NFSService(String driver, DriverProperties properties) {
+        this(driver, properties, createClient(properties));
+        log.debug("opcooc-storage - init client driver [{}] success", driver);
+    }
+
+    /**
+     * 使用已创建的客户端(测试时传入模拟的 AmazonS3)
+     */
+    S3NFSService(String driver, DriverProperties properties, AmazonS3 s3) {
+        this.configuration = properties;
+        this.client = s3;
+        this.executor = newExecutor("opcooc-storage-" + driver + "-part-", properties.getConcurrency());
+        this.batchExecutor = newExecutor("opcooc-storage-" + driver + "-batch-", properties.getBatchConcurrency());
+        this.listExecutor = newExecutor("opcooc-storage-" + driver + "-list-", properties.getListConcurrency());
+        this.multipartUploader = new S3MultipartUploader(s3, properties, executor);
+        this.rangeDownloader = new S3RangeDownloader(s3, properties, executor);
+        this.diskCache = createDiskCache(driver, s3, properties);
+        this.memoryCache = createMemoryCache(s3, diskCache, properties);
+        this.metadataCache = new S3MetadataCache(properties);
+        this.readCoalescer = Boolean.TRUE.equals(properties.getReadCoalescing()) ? new S3ReadCoalescer(s3, properties) : null;
+    }
+
+    private static AmazonS3 createClient(DriverProperties properties) {
         AWSCredentials credentials = new BasicAWSCredentials(properties.getAccessKey(), properties.getSecretKey());
 
         AwsClientBuilder.EndpointConfiguration endpointConfiguration = new AwsClientBuilder
                 .EndpointConfiguration(properties.getEndpoint(), properties.getRegion());
 
-        AmazonS3 s3 = AmazonS3ClientBuilder.standard()
+        return AmazonS3ClientBuilder.standard()
                 .withCredentials(new AWSStaticCredentialsProvider(credentials))
                 .withPathStyleAccessEnabled(properties.getPathStyle())
                 .withEndpointConfiguration(endpointConfiguration)
                 .build();
+    }
 
-        log.debug("opcooc-storage - init client driver [{}] success", driver);
-        this.configuration = properties;
-        this.client = s3;
+    private static S3DiskCache createDiskCache(String driver, AmazonS3 s3, DriverProperties properties) {
+        if (!StringUtils.hasText(properties.getDiskCacheDir())) {
+            return null;
+        }
+        try {
+            return new S3DiskCache(s3, Paths.get(properties.getDiskCacheDir()), driver, properties);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static S3MemoryCache createMemoryCache(AmazonS3 s3, S3DiskCache diskCache, DriverProperties properties) {
+        if (properties.getMemoryCacheMaxSize() == null || properties.getMemoryCacheMaxSize() <= 0) {
+            return null;
+        }
+        S3MemoryCache.ObjectLoader loader = diskCache == null ? s3::getObject : diskCache::getObject;
+        return new S3MemoryCache(s3, loader, properties);
+    }
+
+    /**
+     * 对象被修改或删除后移除本地缓存
+     */
+    private void evictCache(String bucketName, String objectName) {
+        metadataCache.invalidate(bucketName, objectName);
+        if (memoryCache != null) {
+            memoryCache.invalidate(bucketName, objectName);
+        }
+        if (diskCache != null) {
+            diskCache.invalidate(bucketName, objectName);
+        }
+        if (readCoalescer != null) {
+            readCoalescer.invalidate(bucketName, objectName);
+        }
+    }
+
+    /**
+     * bucket被删除后移除该bucket的本地缓存
+     */
+    private void evictBucketCache(String bucketName) {
+        existingBuckets.remove(bucketName);
+        metadataCache.invalidateBucket(bucketName);
+        if (memoryCache != null) {
+            memoryCache.invalidateBucket(bucketName);
+        }
+        if (diskCache != null) {
+            diskCache.invalidateBucket(bucketName);
+        }
+        if (readCoalescer != null) {
+            readCoalescer.invalidateBucket(bucketName);
+        }
+    }
+
+    private static ExecutorService newExecutor(String threadNamePrefix, int threads) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(threads, threadFactory);
     }
 
     @Override
@@ -182,6 +379,8 @@ public class S3NFSService implements NFSService {
             client.putObject(putObjectRequest);
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            evictCache(args.getBucketName(), args.getObjectName());
         }
     }
 
@@ -189,6 +388,7 @@ public class S3NFSService implements NFSService {
     public String createBucket(BucketArgs args) {
         try {
             Bucket bucket = client.createBucket(args.getBucketName());
+            markBucketExist(bucket.getName());
             return bucket.getName();
         } catch (Exception e) {
             throw new StorageException(e);
@@ -213,6 +413,8 @@ public class S3NFSService implements NFSService {
             client.deleteBucket(args.getBucketName());
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            evictBucketCache(args.getBucketName());
         }
 
     }
@@ -229,16 +431,48 @@ public class S3NFSService implements NFSService {
 
     @Override
     public boolean doesBucketExist(BucketArgs args) {
+        if (!Boolean.FALSE.equals(args.getUseCache())) {
+            Long expiresAt = existingBuckets.get(args.getBucketName());
+            if (expiresAt != null) {
+                if (System.currentTimeMillis() < expiresAt) {
+                    return true;
+                }
+                existingBuckets.remove(args.getBucketName());
+            }
+        }
         try {
-            return client.doesBucketExistV2(args.getBucketName());
+            boolean exist = client.doesBucketExistV2(args.getBucketName());
+            if (exist) {
+                markBucketExist(args.getBucketName());
+            } else {
+                existingBuckets.remove(args.getBucketName());
+            }
+            return exist;
         } catch (Exception e) {
             throw new StorageException(e);
         }
     }
 
+    /**
+     * 记录 bucket 存在, 只缓存存在的结果, 不存在时每次都重新检查
+     */
+    private void markBucketExist(String bucketName) {
+        Duration ttl = configuration.getBucketCacheTtl();
+        if (ttl != null && !ttl.isZero() && !ttl.isNegative()) {
+            existingBuckets.put(bucketName, System.currentTimeMillis() + ttl.toMillis());
+        }
+    }
+
 
     @Override
     public FileBasicInfo uploadObject(UploadArgs args) {
+        if (args.getObjectSize() <= 0) {
+            try {
+                return multipartUploader.uploadStream(args);
+            } finally {
+                evictCache(args.getBucketName(), args.getObjectName());
+            }
+        }
         try {
             ObjectMetadata metadata = new ObjectMetadata();
             metadata.setContentLength(args.getObjectSize());
@@ -247,58 +481,264 @@ public class S3NFSService implements NFSService {
             return StorageUtils.createFileBasicInfo(result, args, args.getObjectSize());
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            evictCache(args.getBucketName(), args.getObjectName());
         }
     }
 
     @Override
     public FileBasicInfo uploadFile(UploadArgs args) {
         try {
+            if (args.getFile().length() > configuration.getMultipartThreshold()) {
+                return multipartUploader.uploadFile(args);
+            }
             PutObjectResult result = client.putObject(args.getBucketName(), args.getObjectName(), args.getFile());
             return StorageUtils.createFileBasicInfo(result, args, args.getObjectSize());
+        } catch (StorageException e) {
+            throw e;
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            evictCache(args.getBucketName(), args.getObjectName());
         }
     }
 
+    @Override
+    public List<BatchResult<FileBasicInfo>> uploadObjects(Collection<UploadArgs> args) {
+        List<Future<BatchResult<FileBasicInfo>>> futures = args.stream()
+                .map(item -> submitBatch(item.getBucketName(), item.getObjectName(),
+                        () -> BatchResult.success(item.getBucketName(), item.getObjectName(), item.getFile() == null ? uploadObject(item) : uploadFile(item))))
+                .collect(toList());
+        return StorageUtils.awaitAll(futures);
+    }
+
+    @Override
+    public List<BatchResult<FileBasicInfo>> uploadDirectory(UploadDirectoryArgs args) {
+        String bucketName = args.getBucketName();
+        String prefix = args.getObjectName() == null ? "" : args.getObjectName();
+        Path directory = args.getDirectory();
+
+        Map<String, Path> files = new TreeMap<>();
+        for (Path file : walkDirectory(directory)) {
+            String objectName = prefix + StringUtils.cleanPath(directory.relativize(file).toString());
+            ObjectArgs object = ObjectArgs.builder().bucketName(bucketName).objectName(objectName).build();
+            files.put(args.getObjectConverter() == null ? objectName : args.getObjectConverter().convert(configuration, object), file);
+        }
+
+        Map<String, FileBasicInfo> remote = new HashMap<>();
+        if (Boolean.TRUE.equals(args.getSkipUnchanged()) && !files.isEmpty()) {
+            String commonPrefix = files.keySet().stream().reduce(StorageUtils::commonPrefix).orElse("");
+            ListObjectArgs list = ListObjectArgs.builder().bucketName(bucketName).objectName(commonPrefix).build();
+            listObjects(list).forEach(info -> remote.put(info.getKey(), info));
+        }
+
+        List<Future<BatchResult<FileBasicInfo>>> futures = new ArrayList<>(files.size());
+        files.forEach((objectName, file) -> futures.add(submitBatch(bucketName, objectName, () -> {
+            FileBasicInfo info = remote.get(objectName);
+            if (info != null && isUnchanged(file.toFile(), info)) {
+                return BatchResult.skipped(bucketName, objectName, info);
+            }
+            UploadArgs upload = UploadArgs.builder().bucketName(bucketName).objectName(objectName).file(file.toFile()).build();
+            return BatchResult.success(bucketName, objectName, uploadFile(upload));
+        })));
+        log.debug("opcooc-storage - upload directory [{}] with [{}] files, [{}] remote objects", directory, files.size(), remote.size());
+        return StorageUtils.awaitAll(futures);
+    }
+
+    /**
+     * 在批量线程池中并行遍历目录, 每个子目录一个任务, 不跟随目录的符号链接
+     * 任务之间不互相等待, 由计数归零判断遍历完成
+     *
+     * @return 目录下的所有文件
+     */
+    private List<Path> walkDirectory(Path directory) {
+        Queue<Path> files = new ConcurrentLinkedQueue<>();
+        AtomicInteger pending = new AtomicInteger();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        walkDirectory(directory, files, pending, done);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+        } catch (ExecutionException e) {
+            throw new StorageException((Exception) e.getCause());
+        }
+        return new ArrayList<>(files);
+    }
+
+    private void walkDirectory(Path directory, Queue<Path> files, AtomicInteger pending, CompletableFuture<Void> done) {
+        pending.incrementAndGet();
+        try {
+            batchExecutor.execute(() -> {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path entry : entries) {
+                        if (done.isDone()) {
+                            return;
+                        }
+                        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            walkDirectory(entry, files, pending, done);
+                        } else if (Files.isRegularFile(entry)) {
+                            files.add(entry);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    done.completeExceptionally(e);
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.complete(null);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 本地文件与服务端对象的大小和ETag是否一致
+     * 本地ETag按当前的 multipartThreshold 和 partSize 计算, 使用其他分片配置上传的对象不会被识别为未修改
+     */
+    private boolean isUnchanged(File file, FileBasicInfo info) {
+        if (file.length() != info.getContentLength()) {
+            return false;
+        }
+        String eTag = StorageUtils.calculateETag(file, configuration.getMultipartThreshold(), configuration.getPartSize());
+        return StorageUtils.eTagEquals(eTag, info.getETag());
+    }
+
+    /**
+     * 在批量线程池中执行任务, 异常转换为失败结果
+     */
+    private <T> Future<BatchResult<T>> submitBatch(String bucketName, String objectName, Supplier<BatchResult<T>> task) {
+        return batchExecutor.submit(batchTask(bucketName, objectName, task));
+    }
+
+    private static <T> Callable<BatchResult<T>> batchTask(String bucketName, String objectName, Supplier<BatchResult<T>> task) {
+        return () -> {
+            try {
+                return task.get();
+            } catch (StorageException e) {
+                return BatchResult.failure(bucketName, objectName, e);
+            } catch (Exception e) {
+                return BatchResult.failure(bucketName, objectName, new StorageException(e));
+            }
+        };
+    }
+
     @Override
     public void copyObject(CopyObjectArgs args) {
         ObjectArgs source = args.getSource();
         try {
+            ObjectMetadata sourceMetadata = client.getObjectMetadata(source.getBucketName(), source.getObjectName());
+            if (sourceMetadata.getContentLength() > configuration.getMultipartCopyThreshold()) {
+                multipartUploader.copyObject(args, sourceMetadata);
+                return;
+            }
             client.copyObject(new CopyObjectRequest(source.getBucketName(), source.getObjectName(), args.getBucketName(), args.getObjectName()));
+        } catch (StorageException e) {
+            throw e;
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            evictCache(args.getBucketName(), args.getObjectName());
         }
     }
 
     @Override
     public boolean objectExist(ObjectArgs args) {
         try {
-            return client.doesObjectExist(args.getBucketName(), args.getObjectName());
+            return headObject(args) != null;
         } catch (Exception e) {
             throw new StorageException(e);
         }
     }
 
     /**
-     * 判断对象是否存在
+     * 获取对象元数据, 开启元数据缓存时优先使用缓存
+     *
+     * @param args 参数
+     * @return 元数据, 对象不存在时返回 null
+     */
+    private ObjectMetadata headObject(ObjectArgs args) {
+        String bucketName = args.getBucketName();
+        String objectName = args.getObjectName();
+        if (!Boolean.FALSE.equals(args.getUseCache())) {
+            S3MetadataCache.Entry entry = metadataCache.lookup(bucketName, objectName);
+            if (entry != null) {
+                return entry.getMetadata();
+            }
+        }
+        long generation = metadataCache.begin(bucketName, objectName);
+        ObjectMetadata metadata;
+        try {
+            // 对象被修改后代次变化, 之后的调用方发起新的请求而不是合并到修改前的请求
+            metadata = headFlights.execute(bucketName + "/" + objectName + "#" + generation, () -> {
+                ObjectMetadata result;
+                try {
+                    result = client.getObjectMetadata(bucketName, objectName);
+                } catch (AmazonS3Exception e) {
+                    if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+                        throw e;
+                    }
+                    result = null;
+                }
+                metadataCache.put(bucketName, objectName, result, generation);
+                return result;
+            });
+        } finally {
+            metadataCache.end(bucketName, objectName);
+        }
+        // 合并的调用方共享同一个结果, 各自返回副本
+        return metadata == null ? null : metadata.clone();
+    }
+
+    /**
+     * 判断对象是否存在(只有开启 checkObjectExist 时才会在读取前额外检查)
      * @param args
      */
     private void checkObjectExist(ObjectArgs args) {
-        boolean objectExist = client.doesObjectExist(args.getBucketName(), args.getObjectName());
-        if (!objectExist) {
-            throw new StorageException("bucket name: [%s], object name [%s] does not exist", args.getBucketName(), args.getObjectName());
+        if (!Boolean.TRUE.equals(configuration.getCheckObjectExist())) {
+            return;
+        }
+        if (headObject(args) == null) {
+            throw objectNotFound(args);
+        }
+    }
+
+    private static StorageException objectNotFound(ObjectArgs args) {
+        return new StorageException("bucket name: [%s], object name [%s] does not exist", args.getBucketName(), args.getObjectName());
+    }
+
+    /**
+     * 读取失败时的异常, 对象不存在(404)时与预先检查的异常信息一致
+     *
+     * @param args 参数
+     * @param e    异常
+     * @return 异常
+     */
+    private static StorageException readFailure(ObjectArgs args, Exception e) {
+        if (e instanceof StorageException) {
+            return (StorageException) e;
         }
+        if (e instanceof AmazonS3Exception && ((AmazonS3Exception) e).getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            return new StorageException(objectNotFound(args));
+        }
+        return new StorageException(e);
     }
 
     @Override
     public FileBasicInfo getObjectMetadata(ObjectArgs args) {
         try {
             //判断对象是否存在
-            checkObjectExist(args);
-            ObjectMetadata object = client.getObjectMetadata(args.getBucketName(), args.getObjectName());
+            ObjectMetadata object = headObject(args);
+            if (object == null) {
+                throw objectNotFound(args);
+            }
             return StorageUtils.createFileBasicInfo(object, args);
         } catch (Exception e) {
-            throw new StorageException(e);
+            throw readFailure(args, e);
         }
     }
 
@@ -307,9 +747,107 @@ public class S3NFSService implements NFSService {
         try {
             //判断对象是否存在
             checkObjectExist(args);
+            if (memoryCache != null) {
+                return memoryCache.get(args.getBucketName(), args.getObjectName());
+            }
+            if (diskCache != null) {
+                return diskCache.getObject(args.getBucketName(), args.getObjectName()).getObjectContent();
+            }
+            if (readCoalescer != null) {
+                return readCoalescer.get(args.getBucketName(), args.getObjectName());
+            }
             S3Object s3Object = client.getObject(args.getBucketName(), args.getObjectName());
             return s3Object.getObjectContent();
         } catch (Exception e) {
+            throw readFailure(args, e);
+        }
+    }
+
+    @Override
+    public RangeInputStream getObjectRange(RangeObjectArgs args) {
+        try {
+            checkObjectExist(args);
+            if (args.getSuffixLength() == null) {
+                Long end = args.getLength() == null ? null : args.getOffset() + args.getLength() - 1;
+                GetObjectRequest request = new GetObjectRequest(args.getBucketName(), args.getObjectName());
+                if (end == null) {
+                    request.setRange(args.getOffset());
+                } else {
+                    request.setRange(args.getOffset(), end);
+                }
+                return rangeStream(args, client.getObject(request), args.getOffset(), end);
+            }
+            // SDK 不支持后缀范围, 先设置范围使其跳过完整对象的MD5校验, 再由自定义请求头覆盖 Range
+            GetObjectRequest request = new GetObjectRequest(args.getBucketName(), args.getObjectName());
+            request.setRange(0);
+            request.putCustomRequestHeader(Headers.RANGE, "bytes=-" + args.getSuffixLength());
+            S3Object object = client.getObject(request);
+            ObjectMetadata metadata = object.getObjectMetadata();
+            long instanceLength = metadata.getInstanceLength();
+            long start = Math.max(0, instanceLength - args.getSuffixLength());
+            Long[] range = metadata.getContentRange();
+            if (range == null ? start != 0 : range[0] != start) {
+                // 自定义请求头没有生效(返回了从0开始的范围), 按已知的对象长度改为明确的范围重新请求
+                object.getObjectContent().abort();
+                object = client.getObject(new GetObjectRequest(args.getBucketName(), args.getObjectName())
+                        .withRange(start, instanceLength - 1)
+                        .withMatchingETagConstraint(metadata.getETag()));
+                if (object == null) {
+                    throw new StorageException("bucket name: [%s], object name [%s] changed during range read", args.getBucketName(), args.getObjectName());
+                }
+            }
+            return rangeStream(args, object, start, instanceLength - 1);
+        } catch (Exception e) {
+            throw readFailure(args, e);
+        }
+    }
+
+    /**
+     * 校验服务端返回的范围, 与请求不一致(例如忽略了 Range 返回完整对象)时断开连接并抛出异常
+     *
+     * @param start 请求的起始位置
+     * @param end   请求的结束位置(包含), 为 null 时读取到对象末尾
+     */
+    private static RangeInputStream rangeStream(RangeObjectArgs args, S3Object object, long start, Long end) {
+        ObjectMetadata metadata = object.getObjectMetadata();
+        Long[] range = metadata.getContentRange();
+        long instanceLength = metadata.getInstanceLength();
+        long rangeStart = range == null ? 0 : range[0];
+        long rangeEnd = range == null ? instanceLength - 1 : range[1];
+        long expectedEnd = end == null ? instanceLength - 1 : Math.min(end, instanceLength - 1);
+        if (rangeStart != start || rangeEnd != expectedEnd) {
+            object.getObjectContent().abort();
+            throw new StorageException("bucket name: [%s], object name [%s] returned range [%s-%s], expected [%s-%s]",
+                    args.getBucketName(), args.getObjectName(), rangeStart, rangeEnd, start, expectedEnd);
+        }
+        return new RangeInputStream(object.getObjectContent(), rangeStart, rangeEnd, instanceLength, metadata.getETag());
+    }
+
+    @Override
+    public SeekableByteChannel getObjectToChannel(ObjectArgs args) {
+        try {
+            return new S3SeekableByteChannel(client, args.getBucketName(), args.getObjectName(), configuration.getReadAheadSize());
+        } catch (Exception e) {
+            throw readFailure(args, e);
+        }
+    }
+
+    @Override
+    public long transferObject(ObjectArgs args, OutputStream out) {
+        InputStream in = getObjectToStream(args);
+        try {
+            return StreamTransfer.transfer(in, out);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public long transferObject(ObjectArgs args, WritableByteChannel channel) {
+        InputStream in = getObjectToStream(args);
+        try {
+            return StreamTransfer.transfer(in, channel);
+        } catch (IOException e) {
             throw new StorageException(e);
         }
     }
@@ -319,11 +857,108 @@ public class S3NFSService implements NFSService {
         try {
             //判断对象是否存在
             checkObjectExist(args);
-            client.getObject(new GetObjectRequest(args.getBucketName(), args.getObjectName()), args.getFile());
-            return args.getFile();
+            return Boolean.TRUE.equals(args.getResumable()) ? rangeDownloader.resume(args) : rangeDownloader.download(args);
+        } catch (Exception e) {
+            throw readFailure(args, e);
+        }
+    }
+
+    @Override
+    public BatchReport<File> downloadObjects(DownloadObjectsArgs args) {
+        long start = System.currentTimeMillis();
+        String bucketName = args.getBucketName();
+        String prefix = args.getObjectName() == null ? "" : args.getObjectName();
+        Path directory = args.getDirectory().toAbsolutePath().normalize();
+        // 限制已提交未完成的任务数, 列举速度快于下载时暂停列举
+        Semaphore permits = new Semaphore(configuration.getBatchConcurrency() * 2);
+        AtomicLong bytes = new AtomicLong();
+        List<Future<BatchResult<File>>> futures = new ArrayList<>();
+        try {
+            if (!CollectionUtils.isEmpty(args.getObjectNames())) {
+                for (String objectName : args.getObjectNames()) {
+                    futures.add(submitDownload(args, directory, objectName, null, permits, bytes));
+                }
+            } else {
+                ListObjectsV2Request req = new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix);
+                ListObjectsV2Result result;
+                do {
+                    result = client.listObjectsV2(req);
+                    for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                        if (!summary.getKey().endsWith("/")) {
+                            futures.add(submitDownload(args, directory, summary.getKey(), StorageUtils.createFileBasicInfo(summary, args), permits, bytes));
+                        }
+                    }
+                    req.setContinuationToken(result.getNextContinuationToken());
+                } while (result.isTruncated());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(false));
+            throw new StorageException(e);
         } catch (Exception e) {
+            futures.forEach(future -> future.cancel(false));
             throw new StorageException(e);
         }
+        List<BatchResult<File>> results = StorageUtils.awaitAll(futures);
+        BatchReport<File> report = new BatchReport<>(results, bytes.get(), System.currentTimeMillis() - start);
+        log.debug("opcooc-storage - download [{}] objects to [{}], [{}] skipped, [{}] failed, [{}] bytes in [{}] ms",
+                results.size(), directory, report.getSkippedCount(), report.getFailureCount(), report.getBytes(), report.getElapsedMillis());
+        return report;
+    }
+
+    /**
+     * 获取许可后提交单个下载任务, 任务完成或被取消时释放许可
+     *
+     * @param remote 列举得到的对象信息, 指定对象名称下载时为 null
+     */
+    private Future<BatchResult<File>> submitDownload(DownloadObjectsArgs args, Path directory, String objectName, FileBasicInfo remote,
+                                                     Semaphore permits, AtomicLong bytes) throws InterruptedException {
+        String bucketName = args.getBucketName();
+        FutureTask<BatchResult<File>> task = new FutureTask<BatchResult<File>>(batchTask(bucketName, objectName, () -> {
+            ObjectArgs object = ObjectArgs.builder().bucketName(bucketName).objectName(objectName).build();
+            try {
+                File file = localFile(directory, args.getObjectName(), objectName);
+                if (Boolean.TRUE.equals(args.getSkipUnchanged()) && file.isFile()) {
+                    FileBasicInfo info = remote != null ? remote
+                            : StorageUtils.createFileBasicInfo(client.getObjectMetadata(bucketName, objectName), object);
+                    if (isUnchanged(file, info)) {
+                        return BatchResult.skipped(bucketName, objectName, file);
+                    }
+                }
+                File downloaded = rangeDownloader.download(ObjectToFileArgs.builder().bucketName(bucketName).objectName(objectName).file(file).build());
+                bytes.addAndGet(downloaded.length());
+                return BatchResult.success(bucketName, objectName, downloaded);
+            } catch (AmazonS3Exception e) {
+                throw readFailure(object, e);
+            }
+        })) {
+            @Override
+            protected void done() {
+                // 执行结束和执行前被取消都会回调
+                permits.release();
+            }
+        };
+        permits.acquire();
+        try {
+            batchExecutor.execute(task);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * 对象在本地目录中的文件, 去掉前缀中最后一个 '/' 之前的部分
+     */
+    private static File localFile(Path directory, String prefix, String objectName) {
+        int index = prefix == null ? -1 : prefix.lastIndexOf('/');
+        String relative = index >= 0 && objectName.startsWith(prefix.substring(0, index + 1)) ? objectName.substring(index + 1) : objectName;
+        Path file = directory.resolve(StringUtils.trimLeadingCharacter(relative, '/')).normalize();
+        if (!file.startsWith(directory) || file.equals(directory)) {
+            throw new StorageException("object name [%s] resolves outside of the directory [%s]", objectName, directory);
+        }
+        return file.toFile();
     }
 
     @Override
@@ -332,6 +967,8 @@ public class S3NFSService implements NFSService {
             client.deleteObject(args.getBucketName(), args.getObjectName());
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            evictCache(args.getBucketName(), args.getObjectName());
         }
     }
 
@@ -343,31 +980,155 @@ public class S3NFSService implements NFSService {
             client.deleteObjects(request);
         } catch (Exception e) {
             throw new StorageException(e);
+        } finally {
+            args.getObjectNames().forEach(objectName -> evictCache(args.getBucketName(), objectName));
         }
     }
 
     @Override
     public List<FileBasicInfo> listObjects(ListObjectArgs args) {
-        ListObjectsV2Request req = new ListObjectsV2Request()
+        try (Stream<FileBasicInfo> stream = streamObjects(args)) {
+            return stream.collect(toList());
+        }
+    }
+
+    @Override
+    public Stream<FileBasicInfo> streamObjects(ListObjectArgs args) {
+        S3ObjectIterator iterator = new S3ObjectIterator(client, listExecutor, args, token -> new ListObjectsV2Request()
                 .withBucketName(args.getBucketName())
                 .withPrefix(args.getObjectName())
-                .withMaxKeys(args.getMaxKeys());
+                .withDelimiter(args.getDelimiter())
+                .withMaxKeys(args.getMaxKeys())
+                .withStartAfter(args.getStartAfter())
+                .withContinuationToken(token != null ? token : args.getContinuationToken()));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
 
-        ListObjectsV2Result result;
-        List<FileBasicInfo> objectList = new ArrayList<>();
-        do {
-            result = client.listObjectsV2(req);
+    @Override
+    public ObjectListPage listFolder(ListObjectArgs args) {
+        if (StringUtils.hasLength(args.getDelimiter())) {
+            return listObjectsPage(args);
+        }
+        return listObjectsPage(args.toBuilder().delimiter("/").build());
+    }
 
-            for (S3ObjectSummary object : result.getObjectSummaries()) {
-                objectList.add(StorageUtils.createFileBasicInfo(object, args));
+    @Override
+    public ObjectListPage listObjectsPage(ListObjectArgs args) {
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(args.getBucketName())
+                .withPrefix(args.getObjectName())
+                .withDelimiter(args.getDelimiter())
+                .withMaxKeys(args.getMaxKeys())
+                .withStartAfter(args.getStartAfter())
+                .withContinuationToken(args.getContinuationToken());
+        try {
+            ListObjectsV2Result result = client.listObjectsV2(request);
+            List<FileBasicInfo> objects = result.getObjectSummaries().stream()
+                    .map(summary -> StorageUtils.createFileBasicInfo(summary, args))
+                    .collect(toList());
+            return new ObjectListPage(objects, result.getCommonPrefixes(), result.getNextContinuationToken(), result.isTruncated());
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public Stream<FileBasicInfo> listObjectsParallel(ParallelListObjectArgs args) {
+        int parallelism = args.getParallelism() != null ? args.getParallelism() : configuration.getListConcurrency();
+        List<S3PartitionedIterator.Partition> partitions = CollectionUtils.isEmpty(args.getSplitPoints())
+                ? prefixPartitions(args, parallelism) : splitPartitions(args.getObjectName(), args.getSplitPoints());
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, listExecutor, args, partitions,
+                Boolean.TRUE.equals(args.getOrdered()), parallelism);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * 按分割点划分分区, 分割点属于前一个分区
+     */
+    private static List<S3PartitionedIterator.Partition> splitPartitions(String prefix, Collection<String> points) {
+        TreeSet<String> splitPoints = new TreeSet<>(StorageUtils::compareUtf8);
+        splitPoints.addAll(points);
+        List<S3PartitionedIterator.Partition> partitions = new ArrayList<>(splitPoints.size() + 1);
+        String startAfter = null;
+        for (String splitPoint : splitPoints) {
+            partitions.add(new S3PartitionedIterator.Partition(prefix, null, startAfter, splitPoint));
+            startAfter = splitPoint;
+        }
+        partitions.add(new S3PartitionedIterator.Partition(prefix, null, startAfter, null));
+        return partitions;
+    }
+
+    /**
+     * 按 '/' 列举一级公共前缀, 每个公共前缀作为一个分区
+     * <pre>
+     * 1.发现阶段只保存公共前缀和前缀之间是否有直属对象, 不缓存对象
+     * 2.前缀之间的直属对象作为按需列举的分区, 范围为 (前一个前缀, 后一个前缀], 使用 '/' 分隔符只返回直属对象
+     * 3.公共前缀不足两个时无法并行, 改为在名称空间上生成分割点
+     * </pre>
+     */
+    private List<S3PartitionedIterator.Partition> prefixPartitions(ParallelListObjectArgs args, int parallelism) {
+        String prefix = args.getObjectName();
+        List<String> prefixes = new ArrayList<>();
+        // 第 i 位表示第 i 个公共前缀之前(上一个前缀之后)有直属对象, 最后一位表示最后一个前缀之后
+        BitSet gaps = new BitSet();
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(args.getBucketName())
+                .withPrefix(prefix)
+                .withDelimiter("/")
+                .withStartAfter(args.getStartAfter())
+                .withMaxKeys(args.getMaxKeys());
+        try {
+            ListObjectsV2Result result;
+            do {
+                result = client.listObjectsV2(request);
+                // 前一页的公共前缀都排在本页之前, 本页对象只需要和本页的公共前缀比较
+                List<String> page = new ArrayList<>(result.getCommonPrefixes());
+                page.sort(StorageUtils::compareUtf8);
+                for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                    int index = Collections.binarySearch(page, summary.getKey(), StorageUtils::compareUtf8);
+                    gaps.set(prefixes.size() + (index < 0 ? -index - 1 : index));
+                }
+                prefixes.addAll(page);
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+
+        if (prefixes.size() < 2) {
+            // 只有一个公共前缀且没有直属对象时在该前缀下划分
+            String base = prefixes.size() == 1 && gaps.isEmpty() ? prefixes.get(0) : prefix;
+            return splitPartitions(base, generateSplitPoints(base, parallelism));
+        }
+        List<S3PartitionedIterator.Partition> partitions = new ArrayList<>(prefixes.size() * 2 + 1);
+        String previous = null;
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (gaps.get(i)) {
+                partitions.add(new S3PartitionedIterator.Partition(prefix, "/", previous, prefixes.get(i)));
             }
-            // If there are more than maxKeys keys in the bucket, get a continuation token
-            // and list the next objects.
-            req.setContinuationToken(result.getNextContinuationToken());
-        } while (result.isTruncated());
-        return objectList;
+            partitions.add(new S3PartitionedIterator.Partition(prefixes.get(i), null, null, null));
+            previous = prefixes.get(i);
+        }
+        if (gaps.get(prefixes.size())) {
+            partitions.add(new S3PartitionedIterator.Partition(prefix, "/", previous, null));
+        }
+        return partitions;
     }
 
+    /**
+     * 在前缀之后按常见的名称字符(数字和字母)均匀生成分割点, 分区数为 parallelism 的两倍
+     */
+    private static List<String> generateSplitPoints(String prefix, int parallelism) {
+        String base = prefix == null ? "" : prefix;
+        int count = Math.min(SPLIT_CHARACTERS.length(), parallelism * 2);
+        List<String> splitPoints = new ArrayList<>(count);
+        for (int i = 1; i < count; i++) {
+            splitPoints.add(base + SPLIT_CHARACTERS.charAt(i * SPLIT_CHARACTERS.length() / count));
+        }
+        return splitPoints;
+    }
 
     @Override
     public String getUrl(ObjectArgs args) {
@@ -415,6 +1176,18 @@ public class S3NFSService implements NFSService {
 
     @Override
     public void close() throws IOException {
+        listExecutor.shutdownNow();
+        batchExecutor.shutdownNow();
+        executor.shutdownNow();
         client.shutdown();
+        if (memoryCache != null) {
+            memoryCache.close();
+        }
+        if (readCoalescer != null) {
+            readCoalescer.close();
+        }
+        if (diskCache != null) {
+            diskCache.close();
+        }
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.opcooc.storage.args.ObjectArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.toolkit.StorageUtils;
+
+/**
+ * 按需列举对象的迭代器
+ * <pre>
+ * 1.第一页在调用方线程中请求, 只读取一页的调用不占用列举线程池
+ * 2.取得一页结果后立即在后台请求下一页, 调用方处理当前页时下一页已经在传输
+ * 3.关闭后取消尚未完成的请求, 不再发送新的请求; 关闭不需要等待正在进行的请求
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class S3ObjectIterator implements Iterator<FileBasicInfo>, Closeable {
+
+    private final AmazonS3 client;
+
+    private final ExecutorService executor;
+
+    private final ObjectArgs args;
+
+    /**
+     * 根据 continuationToken 创建请求(第一页为 null)
+     */
+    private final Function<String, ListObjectsV2Request> requestFactory;
+
+    private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+
+    /**
+     * 是否已经请求第一页
+     */
+    private boolean started;
+
+    /**
+     * 下一页, 没有更多结果时为 null
+     */
+    private volatile Future<ListObjectsV2Result> next;
+
+    private volatile boolean closed;
+
+    public S3ObjectIterator(AmazonS3 client, ExecutorService executor, ObjectArgs args, Function<String, ListObjectsV2Request> requestFactory) {
+        this.client = client;
+        this.executor = executor;
+        this.args = args;
+        this.requestFactory = requestFactory;
+    }
+
+    private Future<ListObjectsV2Result> fetch(String continuationToken) {
+        ListObjectsV2Request request = requestFactory.apply(continuationToken);
+        return executor.submit(() -> client.listObjectsV2(request));
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        while (!closed && !page.hasNext()) {
+            ListObjectsV2Result result;
+            if (!started) {
+                started = true;
+                result = first();
+            } else {
+                Future<ListObjectsV2Result> future = next;
+                if (future == null) {
+                    return false;
+                }
+                result = await(future);
+                if (result == null) {
+                    return false;
+                }
+            }
+            page = result.getObjectSummaries().iterator();
+            next = result.isTruncated() ? fetch(result.getNextContinuationToken()) : null;
+            if (closed) {
+                // 与 close 并发时由这里取消刚提交的请求
+                cancel();
+            }
+        }
+        return !closed;
+    }
+
+    @Override
+    public synchronized FileBasicInfo next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return StorageUtils.createFileBasicInfo(page.next(), args);
+    }
+
+    private ListObjectsV2Result first() {
+        try {
+            return client.listObjectsV2(requestFactory.apply(null));
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 等待下一页
+     *
+     * @return 下一页, 已关闭时为 null
+     */
+    private ListObjectsV2Result await(Future<ListObjectsV2Result> future) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new StorageException(e);
+        } catch (ExecutionException e) {
+            next = null;
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof StorageException ? (StorageException) cause : new StorageException((Exception) cause);
+        }
+    }
+
+    private void cancel() {
+        Future<ListObjectsV2Result> future = next;
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 关闭迭代器, 不获取迭代器的锁, 可以在其他线程等待下一页时调用
+     */
+    @Override
+    public void close() {
+        closed = true;
+        cancel();
+    }
+
+}
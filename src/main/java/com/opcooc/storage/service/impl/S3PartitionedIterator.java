@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.opcooc.storage.args.ListObjectArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.toolkit.StorageUtils;
+
+/**
+ * 多个分区并行列举的迭代器
+ * <pre>
+ * 1.最多同时打开 parallelism 个分区, 每个分区在后台逐页请求并缓存少量页面, 缓存满时暂停
+ * 2.有序模式按分区顺序依次返回(分区按名称排列且互不重叠), 无序模式优先返回已经到达的页面
+ * 3.后台任务只发送请求和写入缓存, 不会等待调用方, 关闭后不再发送新的请求
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class S3PartitionedIterator implements Iterator<FileBasicInfo>, Closeable {
+
+    /**
+     * 每个分区最多缓存的页数
+     */
+    private static final int MAX_BUFFERED_PAGES = 2;
+
+    private final AmazonS3 client;
+
+    private final ExecutorService executor;
+
+    private final ListObjectArgs args;
+
+    private final boolean ordered;
+
+    private final int parallelism;
+
+    /**
+     * 尚未打开的分区
+     */
+    private final Deque<Partition> pending;
+
+    /**
+     * 已经打开的分区(有序模式下第一个为当前分区)
+     */
+    private final List<Partition> open = new ArrayList<>();
+
+    private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+
+    private boolean closed;
+
+    public S3PartitionedIterator(AmazonS3 client, ExecutorService executor, ListObjectArgs args,
+                                 List<Partition> partitions, boolean ordered, int parallelism) {
+        this.client = client;
+        this.executor = executor;
+        this.args = args;
+        this.ordered = ordered;
+        this.parallelism = parallelism;
+        this.pending = new ArrayDeque<>(partitions);
+        synchronized (this) {
+            openPartitions();
+        }
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        while (!page.hasNext()) {
+            List<S3ObjectSummary> next = takePage();
+            if (next == null) {
+                return false;
+            }
+            page = next.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized FileBasicInfo next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return StorageUtils.createFileBasicInfo(page.next(), args);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+        open.clear();
+        page = Collections.emptyIterator();
+        notifyAll();
+    }
+
+    /**
+     * 取得下一页, 所有分区都已返回时为 null
+     */
+    private List<S3ObjectSummary> takePage() {
+        while (!closed && !open.isEmpty()) {
+            List<Partition> candidates = ordered ? open.subList(0, 1) : open;
+            for (Partition partition : candidates) {
+                if (partition.error != null) {
+                    close();
+                    throw failure(partition.error);
+                }
+                if (!partition.pages.isEmpty()) {
+                    List<S3ObjectSummary> result = partition.pages.poll();
+                    fetchIfNeeded(partition);
+                    return result;
+                }
+                if (partition.done) {
+                    open.remove(partition);
+                    openPartitions();
+                    break;
+                }
+            }
+            if (!hasReadyPartition()) {
+                waitForPage();
+            }
+        }
+        return null;
+    }
+
+    private static RuntimeException failure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return cause instanceof StorageException ? (StorageException) cause : new StorageException((Exception) cause);
+    }
+
+    private boolean hasReadyPartition() {
+        List<Partition> candidates = ordered ? open.subList(0, Math.min(1, open.size())) : open;
+        for (Partition partition : candidates) {
+            if (partition.error != null || !partition.pages.isEmpty() || partition.done) {
+                return true;
+            }
+        }
+        return open.isEmpty();
+    }
+
+    private void waitForPage() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new StorageException(e);
+        }
+    }
+
+    private void openPartitions() {
+        while (open.size() < parallelism && !pending.isEmpty()) {
+            Partition partition = pending.poll();
+            open.add(partition);
+            fetchIfNeeded(partition);
+        }
+    }
+
+    /**
+     * 分区未结束, 没有正在进行的请求且缓存未满时请求下一页
+     */
+    private void fetchIfNeeded(Partition partition) {
+        if (closed || partition.done || partition.fetching || partition.pages.size() >= MAX_BUFFERED_PAGES) {
+            return;
+        }
+        partition.fetching = true;
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(args.getBucketName())
+                .withPrefix(partition.prefix)
+                .withDelimiter(partition.delimiter)
+                .withStartAfter(startAfter(partition))
+                .withMaxKeys(args.getMaxKeys())
+                .withContinuationToken(partition.continuationToken);
+        CompletableFuture.supplyAsync(() -> client.listObjectsV2(request), executor)
+                .whenComplete((result, error) -> onPage(partition, result, error));
+    }
+
+    /**
+     * 分区起点和参数 startAfter 中较大的一个
+     */
+    private String startAfter(Partition partition) {
+        String startAfter = args.getStartAfter();
+        if (startAfter == null || partition.startAfter != null && StorageUtils.compareUtf8(partition.startAfter, startAfter) >= 0) {
+            return partition.startAfter;
+        }
+        return startAfter;
+    }
+
+    private synchronized void onPage(Partition partition, ListObjectsV2Result result, Throwable error) {
+        partition.fetching = false;
+        if (closed) {
+            return;
+        }
+        if (error != null) {
+            partition.error = error;
+        } else {
+            // 直属对象分区使用分隔符, 返回的公共前缀超过范围时同样说明已经到达分区末尾
+            boolean prefixBeyondEnd = partition.endInclusive != null && result.getCommonPrefixes().stream()
+                    .anyMatch(prefix -> StorageUtils.compareUtf8(prefix, partition.endInclusive) > 0);
+            List<S3ObjectSummary> summaries = result.getObjectSummaries();
+            boolean reachedEnd = false;
+            if (partition.endInclusive != null) {
+                int index = 0;
+                while (index < summaries.size() && StorageUtils.compareUtf8(summaries.get(index).getKey(), partition.endInclusive) <= 0) {
+                    index++;
+                }
+                reachedEnd = index < summaries.size();
+                summaries = summaries.subList(0, index);
+            }
+            if (!summaries.isEmpty()) {
+                partition.pages.add(summaries);
+            }
+            partition.continuationToken = result.getNextContinuationToken();
+            partition.done = reachedEnd || prefixBeyondEnd || !result.isTruncated();
+            fetchIfNeeded(partition);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 列举分区, 范围为 prefix 下 (startAfter, endInclusive] 的对象(按 UTF-8 顺序)
+     */
+    public static class Partition {
+
+        private final String prefix;
+
+        /**
+         * 分隔符, 列举前缀之间的直属对象时为 '/'
+         */
+        private final String delimiter;
+
+        private final String startAfter;
+
+        private final String endInclusive;
+
+        private final Deque<List<S3ObjectSummary>> pages = new ArrayDeque<>();
+
+        private String continuationToken;
+
+        private boolean fetching;
+
+        private boolean done;
+
+        private Throwable error;
+
+        public Partition(String prefix, String delimiter, String startAfter, String endInclusive) {
+            this.prefix = prefix;
+            this.delimiter = delimiter;
+            this.startAfter = startAfter;
+            this.endInclusive = endInclusive;
+        }
+    }
+
+}
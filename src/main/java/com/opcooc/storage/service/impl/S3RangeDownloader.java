@@ -0,0 +1,327 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpStatus;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.opcooc.storage.args.ObjectToFileArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.io.StreamTransfer;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+import com.opcooc.storage.toolkit.StorageUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 分段并发下载
+ * 1.第一个分段请求的响应头同时提供对象的总长度和ETag, 之后预分配临时文件
+ * 2.第一个分段的数据与其余分段一起在客户端驱动共享的线程池中并发下载, 通过 FileChannel 定位写入
+ * 3.每个分段都要求ETag不变且返回的范围与请求一致, 全部完成后才移动为目标文件
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Slf4j
+public class S3RangeDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String ETAG_SUFFIX = ".etag";
+    private static final String ETAG = "eTag";
+    private static final String LENGTH = "length";
+
+    private final AmazonS3 client;
+
+    private final DriverProperties configuration;
+
+    private final ExecutorService executor;
+
+    public S3RangeDownloader(AmazonS3 client, DriverProperties configuration, ExecutorService executor) {
+        this.client = client;
+        this.configuration = configuration;
+        this.executor = executor;
+    }
+
+    /**
+     * 下载对象到文件
+     *
+     * @param args 参数
+     * @return 文件
+     */
+    public File download(ObjectToFileArgs args) {
+        File target = args.getFile().getAbsoluteFile();
+        Path temp = null;
+        try {
+            Files.createDirectories(target.getParentFile().toPath());
+            temp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".download");
+            download(args, temp);
+            move(temp, target.toPath());
+            return args.getFile();
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    log.warn("opcooc-storage - delete temp file [{}] failed", temp, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 断点续传下载对象到文件
+     * <pre>
+     * 数据顺序追加到 {file}.part, 对象的ETag和长度记录在 {file}.part.etag,
+     * 再次下载时如果ETag不变则从 .part 文件的长度处发送范围请求继续, 完成后移动为目标文件
+     * </pre>
+     *
+     * @param args 参数
+     * @return 文件
+     */
+    public File resume(ObjectToFileArgs args) {
+        File target = args.getFile().getAbsoluteFile();
+        Path part = target.toPath().resolveSibling(target.getName() + PART_SUFFIX);
+        Path sidecar = target.toPath().resolveSibling(target.getName() + PART_SUFFIX + ETAG_SUFFIX);
+        try {
+            Files.createDirectories(target.getParentFile().toPath());
+            Properties state = readState(sidecar);
+            long offset = Files.isRegularFile(part) ? Files.size(part) : 0;
+            S3Object object = null;
+            if (state != null && offset > 0) {
+                long length = Long.parseLong(state.getProperty(LENGTH));
+                String eTag = state.getProperty(ETAG);
+                if (offset == length) {
+                    // 上次已下载完成但未移动, 确认对象未修改
+                    ObjectMetadata metadata = client.getObjectMetadata(args.getBucketName(), args.getObjectName());
+                    if (StorageUtils.eTagEquals(eTag, metadata.getETag())) {
+                        complete(part, sidecar, target);
+                        return args.getFile();
+                    }
+                } else if (offset < length) {
+                    object = client.getObject(new GetObjectRequest(args.getBucketName(), args.getObjectName())
+                            .withRange(offset)
+                            .withMatchingETagConstraint(eTag));
+                    if (object != null && !startsAt(object, offset)) {
+                        // 服务端忽略了范围请求或返回了其他范围, 不能追加到 .part 文件
+                        log.debug("opcooc-storage - object [{}] returned an unexpected range, restart download", args.getObjectName());
+                        object.getObjectContent().abort();
+                        object = null;
+                        state = null;
+                    }
+                }
+                if (object == null && state != null) {
+                    log.debug("opcooc-storage - object [{}] changed, restart download", args.getObjectName());
+                } else if (object != null) {
+                    log.debug("opcooc-storage - resume download [{}] from [{}]", args.getObjectName(), offset);
+                }
+            }
+            if (object == null) {
+                offset = 0;
+                object = client.getObject(args.getBucketName(), args.getObjectName());
+            }
+            // 交给 transfer 之前出现异常时断开连接
+            boolean consumed = false;
+            try {
+                if (offset == 0) {
+                    ObjectMetadata metadata = object.getObjectMetadata();
+                    writeState(sidecar, metadata.getETag(), metadata.getContentLength());
+                }
+                try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    channel.truncate(offset);
+                    channel.position(offset);
+                    consumed = true;
+                    StreamTransfer.transfer(object.getObjectContent(), channel);
+                    channel.force(false);
+                }
+            } finally {
+                if (!consumed) {
+                    object.getObjectContent().abort();
+                }
+            }
+            complete(part, sidecar, target);
+            return args.getFile();
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 响应的 Content-Range 是否从 offset 开始, 服务端忽略范围请求时没有 Content-Range
+     */
+    private static boolean startsAt(S3Object object, long offset) {
+        Long[] range = object.getObjectMetadata().getContentRange();
+        return range != null && range[0] == offset;
+    }
+
+    private static Properties readState(Path sidecar) {
+        if (!Files.isRegularFile(sidecar)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            log.warn("opcooc-storage - ignore unreadable download state [{}]", sidecar, e);
+            return null;
+        }
+        return properties.getProperty(ETAG) == null || properties.getProperty(LENGTH) == null ? null : properties;
+    }
+
+    private static void writeState(Path sidecar, String eTag, long length) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ETAG, eTag);
+        properties.setProperty(LENGTH, String.valueOf(length));
+        try (Writer writer = Files.newBufferedWriter(sidecar, StandardCharsets.UTF_8)) {
+            properties.store(writer, "opcooc-storage resumable download");
+        }
+    }
+
+    private static void complete(Path part, Path sidecar, File target) throws IOException {
+        move(part, target.toPath());
+        Files.deleteIfExists(sidecar);
+    }
+
+    private void download(ObjectToFileArgs args, Path temp) throws IOException {
+        long partSize = configuration.getPartSize();
+        S3Object first;
+        try {
+            first = client.getObject(new GetObjectRequest(args.getBucketName(), args.getObjectName()).withRange(0, partSize - 1));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                throw e;
+            }
+            // 空对象不支持范围请求
+            client.getObject(new GetObjectRequest(args.getBucketName(), args.getObjectName()), temp.toFile());
+            return;
+        }
+
+        // 交给 write 之前出现异常时断开第一个分段的连接
+        boolean consumed = false;
+        try {
+            ObjectMetadata metadata = first.getObjectMetadata();
+            long contentLength = metadata.getInstanceLength();
+            String eTag = metadata.getETag();
+            try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+                file.setLength(contentLength);
+                FileChannel channel = file.getChannel();
+
+                if (metadata.getContentRange() == null) {
+                    // 服务端忽略了范围请求, 直接写入完整对象
+                    consumed = true;
+                    write(first.getObjectContent(), channel, 0, contentLength);
+                    return;
+                }
+                int partCount = StorageUtils.partCount(contentLength, partSize);
+                log.debug("opcooc-storage - range download [{}] start, part size [{}], part count [{}]", args.getObjectName(), partSize, partCount);
+                List<Future<Long>> futures = new ArrayList<>(partCount);
+                // 只等待了第一个分段的响应头, 数据与其余分段并发读取
+                futures.add(executor.submit(() -> write(first.getObjectContent(), channel, 0, Math.min(partSize, contentLength))));
+                consumed = true;
+                for (int i = 1; i < partCount; i++) {
+                    long offset = i * partSize;
+                    long length = Math.min(partSize, contentLength - offset);
+                    GetObjectRequest request = new GetObjectRequest(args.getBucketName(), args.getObjectName())
+                            .withRange(offset, offset + length - 1)
+                            .withMatchingETagConstraint(eTag);
+                    futures.add(executor.submit(() -> {
+                        S3Object object = client.getObject(request);
+                        if (object == null) {
+                            throw new StorageException("bucket name: [%s], object name [%s] changed during download", args.getBucketName(), args.getObjectName());
+                        }
+                        Long[] range = object.getObjectMetadata().getContentRange();
+                        if (range == null || range[0] != offset || range[1] != offset + length - 1) {
+                            object.getObjectContent().abort();
+                            throw new StorageException("bucket name: [%s], object name [%s] returned an unexpected range", args.getBucketName(), args.getObjectName());
+                        }
+                        return write(object.getObjectContent(), channel, offset, length);
+                    }));
+                }
+                StorageUtils.awaitAll(futures);
+                channel.force(false);
+            }
+        } finally {
+            if (!consumed) {
+                first.getObjectContent().abort();
+            }
+        }
+    }
+
+    /**
+     * 将输入流中指定长度的数据写入文件的指定位置
+     *
+     * @return 写入的长度
+     */
+    private static long write(S3ObjectInputStream in, FileChannel channel, long position, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        try (InputStream stream = in) {
+            while (written < length) {
+                int read = stream.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+                if (read < 0) {
+                    throw new StorageException("unexpected end of stream, expected [%s] bytes but got [%s]", length, written);
+                }
+                ByteBuffer src = ByteBuffer.wrap(buffer, 0, read);
+                while (src.hasRemaining()) {
+                    channel.write(src, position + written + src.position());
+                }
+                written += read;
+            }
+            if (stream.read() != -1) {
+                // 剩余数据不再需要, 直接断开连接而不是读完
+                in.abort();
+            }
+        }
+        return written;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.util.StringUtils;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 合并同一个对象的并发完整读取
+ * <pre>
+ * 1.第一个调用方发送 GET 请求, 请求期间到达的调用方共享同一次下载
+ * 2.对象超过 readCoalescingMaxSize 时不合并, 第一个调用方直接读取响应, 等待的调用方各自发送请求
+ * 3.下载的数据边接收边写入 readCoalescingDir 下的临时文件, 每个调用方从文件中读取, 不需要等待下载完成
+ * 4.不使用额外线程: 读取到已下载位置的调用方负责从连接读取下一段数据, 其他调用方等待, 等待超过 readCoalescingTimeout 时抛出异常
+ * 5.下载完成后之后到达的调用方发起新的请求, 临时文件在所有调用方关闭输入流后删除, 未下载完时同时断开连接
+ * 6.对象被修改或删除后调用 invalidate, 正在进行的下载与对象分离, 之后到达的调用方发起新的请求而不是读取旧数据
+ * 7.关闭时断开所有未完成的连接并删除所有临时文件, 等待和读取中的调用方收到异常
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Slf4j
+public class S3ReadCoalescer implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final AmazonS3 client;
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final long timeoutMillis;
+
+    /**
+     * 正在下载的对象, 由 this 保护
+     */
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * 还有调用方未关闭的下载(包括已完成和已分离的), 关闭时删除它们的临时文件, 由 this 保护
+     */
+    private final Set<Flight> active = new HashSet<>();
+
+    private volatile boolean closed;
+
+    public S3ReadCoalescer(AmazonS3 client, DriverProperties configuration) {
+        this.client = client;
+        this.directory = StringUtils.hasText(configuration.getReadCoalescingDir())
+                ? Paths.get(configuration.getReadCoalescingDir()) : Paths.get(System.getProperty("java.io.tmpdir"));
+        this.maxSize = configuration.getReadCoalescingMaxSize();
+        this.timeoutMillis = configuration.getReadCoalescingTimeout().toMillis();
+    }
+
+    /**
+     * 读取对象
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     * @return InputStream(关闭时释放临时文件)
+     */
+    public InputStream get(String bucketName, String objectName) throws IOException {
+        String key = key(bucketName, objectName);
+        Flight flight;
+        boolean leader = false;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("read coalescer closed");
+            }
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight(key);
+                flights.put(key, flight);
+                active.add(flight);
+                leader = true;
+            }
+            flight.participants++;
+        }
+        if (leader) {
+            S3Object object = start(flight, bucketName, objectName);
+            if (object != null) {
+                // 对象过大, 不合并
+                release(flight);
+                return object.getObjectContent();
+            }
+        } else {
+            await(flight);
+            if (!flight.coalesced) {
+                release(flight);
+                return client.getObject(bucketName, objectName).getObjectContent();
+            }
+        }
+        return new SpoolInputStream(flight);
+    }
+
+    /**
+     * 对象被修改或删除时调用, 之后的读取不再加入已经开始的下载
+     * <p>
+     * 已经加入的调用方继续读取原来的下载, 临时文件在它们关闭输入流后删除
+     *
+     * @param bucketName bucket名称
+     * @param objectName 对象名称
+     */
+    public synchronized void invalidate(String bucketName, String objectName) {
+        flights.remove(key(bucketName, objectName));
+    }
+
+    /**
+     * bucket被删除时调用, 之后的读取不再加入该bucket下已经开始的下载
+     *
+     * @param bucketName bucket名称
+     */
+    public synchronized void invalidateBucket(String bucketName) {
+        String prefix = key(bucketName, "");
+        flights.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private static String key(String bucketName, String objectName) {
+        return bucketName + "/" + objectName;
+    }
+
+    /**
+     * 发送请求并创建临时文件
+     *
+     * @return 对象超过合并上限时返回对象本身, 否则返回 null
+     */
+    private S3Object start(Flight flight, String bucketName, String objectName) throws IOException {
+        S3Object object;
+        try {
+            object = client.getObject(bucketName, objectName);
+        } catch (RuntimeException e) {
+            finish(flight);
+            flight.ready.completeExceptionally(e);
+            release(flight);
+            throw e;
+        }
+        long length = object.getObjectMetadata().getContentLength();
+        if (length > maxSize) {
+            finish(flight);
+            flight.ready.complete(null);
+            return object;
+        }
+        try {
+            Path file = Files.createTempFile(directory, "opcooc-storage-", ".read");
+            synchronized (flight) {
+                flight.file = file;
+                flight.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                flight.source = object.getObjectContent();
+                flight.length = length;
+                flight.coalesced = true;
+                if (length == 0) {
+                    flight.completed = true;
+                    object.getObjectContent().close();
+                }
+            }
+            if (length == 0) {
+                finish(flight);
+            }
+            if (closed) {
+                // 关闭发生在创建临时文件期间, close 可能没有看到该文件
+                cleanup(flight);
+                throw new IOException("read coalescer closed");
+            }
+            flight.ready.complete(null);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            object.getObjectContent().abort();
+            finish(flight);
+            flight.ready.completeExceptionally(e);
+            release(flight);
+            throw e;
+        }
+    }
+
+    /**
+     * 等待第一个调用方取得响应
+     */
+    private void await(Flight flight) throws IOException {
+        try {
+            flight.ready.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(flight);
+            throw new InterruptedIOException("interrupted while waiting for coalesced read of " + flight.key);
+        } catch (TimeoutException e) {
+            release(flight);
+            throw new IOException(String.format("timed out after [%s] ms waiting for coalesced read of [%s]", timeoutMillis, flight.key));
+        } catch (ExecutionException e) {
+            release(flight);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new StorageException((Exception) cause);
+        }
+    }
+
+    /**
+     * 下载结束(完成/失败/不合并), 之后到达的调用方发起新的请求
+     */
+    private synchronized void finish(Flight flight) {
+        flights.remove(flight.key, flight);
+    }
+
+    /**
+     * 调用方结束读取, 最后一个调用方关闭连接并删除临时文件
+     */
+    private void release(Flight flight) {
+        synchronized (this) {
+            if (--flight.participants > 0) {
+                return;
+            }
+            flights.remove(flight.key, flight);
+            active.remove(flight);
+        }
+        cleanup(flight);
+    }
+
+    /**
+     * 断开未完成的连接并删除临时文件, 可以重复调用
+     */
+    private void cleanup(Flight flight) {
+        synchronized (flight) {
+            if (flight.source != null && !flight.completed) {
+                // 没有调用方继续读取, 剩余数据不再需要
+                flight.source.abort();
+            }
+            try {
+                if (flight.channel != null) {
+                    flight.channel.close();
+                }
+                if (flight.file != null) {
+                    Files.deleteIfExists(flight.file);
+                }
+            } catch (IOException e) {
+                log.warn("opcooc-storage - delete temp file [{}] failed", flight.file, e);
+            }
+        }
+    }
+
+    /**
+     * 断开所有未完成的连接并删除所有临时文件, 之后的读取抛出异常
+     */
+    @Override
+    public void close() {
+        List<Flight> remaining;
+        synchronized (this) {
+            closed = true;
+            flights.clear();
+            remaining = new ArrayList<>(active);
+            active.clear();
+        }
+        IOException failure = new IOException("read coalescer closed");
+        for (Flight flight : remaining) {
+            flight.ready.completeExceptionally(failure);
+            synchronized (flight) {
+                if (!flight.completed && flight.failure == null) {
+                    flight.failure = failure;
+                }
+                flight.notifyAll();
+            }
+            cleanup(flight);
+        }
+    }
+
+    /**
+     * 确保临时文件中 position 处的数据已经下载
+     *
+     * @return 可读取的位置上限, 已读到对象末尾时为 -1
+     */
+    private long fill(Flight flight, long position) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (flight) {
+            while (true) {
+                if (position < flight.written) {
+                    return flight.written;
+                }
+                if (flight.completed) {
+                    return -1;
+                }
+                if (flight.failure != null) {
+                    throw new IOException("coalesced read of " + flight.key + " failed", flight.failure);
+                }
+                if (!flight.pumping) {
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException(String.format("timed out after [%s] ms waiting for coalesced read of [%s]", timeoutMillis, flight.key));
+                }
+                try {
+                    flight.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for coalesced read of " + flight.key);
+                }
+            }
+            flight.pumping = true;
+        }
+        pump(flight);
+        return fill(flight, position);
+    }
+
+    /**
+     * 从连接读取下一段数据写入临时文件, 同一时间只有一个调用方执行
+     */
+    private void pump(Flight flight) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read = 0;
+        Exception failure = null;
+        try {
+            read = flight.source.read(chunk);
+            if (read > 0) {
+                ByteBuffer src = ByteBuffer.wrap(chunk, 0, read);
+                long position = flight.written;
+                while (src.hasRemaining()) {
+                    position += flight.channel.write(src, position);
+                }
+            } else if (read < 0 && flight.written != flight.length) {
+                failure = new IOException(String.format("unexpected end of object, expected [%s] bytes but got [%s]", flight.length, flight.written));
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        boolean finished;
+        synchronized (flight) {
+            flight.pumping = false;
+            if (failure != null) {
+                flight.failure = failure;
+                flight.source.abort();
+            } else if (read > 0) {
+                flight.written += read;
+            } else if (read < 0) {
+                flight.completed = true;
+            }
+            if (!flight.completed && failure == null && flight.written == flight.length) {
+                flight.completed = true;
+            }
+            finished = flight.completed || flight.failure != null;
+            if (flight.completed) {
+                try {
+                    flight.source.close();
+                } catch (IOException e) {
+                    log.debug("opcooc-storage - close object stream failed", e);
+                }
+            }
+            flight.notifyAll();
+        }
+        if (finished) {
+            finish(flight);
+        }
+    }
+
+    /**
+     * 从临时文件读取的输入流
+     */
+    private class SpoolInputStream extends InputStream {
+
+        private final Flight flight;
+
+        private final byte[] single = new byte[1];
+
+        private long position;
+
+        private boolean closed;
+
+        private SpoolInputStream(Flight flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read;
+            do {
+                read = read(single, 0, 1);
+            } while (read == 0);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            long available = fill(flight, position);
+            if (available < 0) {
+                return -1;
+            }
+            // 已下载的部分不会再被修改, 可以在锁外读取
+            ByteBuffer dst = ByteBuffer.wrap(b, off, (int) Math.min(len, available - position));
+            int read = flight.channel.read(dst, position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(flight);
+            }
+        }
+    }
+
+    private static class Flight {
+
+        private final String key;
+
+        /**
+         * 第一个调用方取得响应(或失败)时完成
+         */
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        /**
+         * 尚未关闭的调用方数量, 由 S3ReadCoalescer 保护
+         */
+        private int participants;
+
+        /**
+         * 是否合并(对象未超过大小上限)
+         */
+        private volatile boolean coalesced;
+
+        private Path file;
+
+        private volatile FileChannel channel;
+
+        private S3ObjectInputStream source;
+
+        private long length;
+
+        /**
+         * 已写入临时文件的长度
+         */
+        private long written;
+
+        private boolean pumping;
+
+        private boolean completed;
+
+        private Exception failure;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * 远程对象的只读随机访问通道
+ * <pre>
+ * 1.打开时通过 HEAD 获取对象长度和ETag, 之后的读取都要求ETag不变
+ * 2.读取时按需发送范围请求, 每次至少请求 readAheadSize 个字节
+ * 3.顺序读取和小范围的向前跳转复用当前连接, 其他跳转会关闭当前连接后重新请求
+ * 4.返回的 Content-Range 与请求不一致时抛出异常, 不会把其他位置的数据当作当前位置返回
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class S3SeekableByteChannel implements SeekableByteChannel {
+
+    /**
+     * 向前跳转不超过该长度时直接跳过数据而不是重新请求
+     */
+    private static final long SKIP_LIMIT = 128 * 1024;
+
+    /**
+     * 关闭连接时剩余数据不超过该长度则读完以复用连接, 否则直接断开
+     */
+    private static final long DRAIN_LIMIT = 16 * 1024;
+
+    /**
+     * 读入非数组缓冲区时使用的中转数组的最大长度
+     */
+    private static final int SCRATCH_SIZE = 64 * 1024;
+
+    private final AmazonS3 client;
+
+    private final String bucketName;
+
+    private final String objectName;
+
+    private final long readAheadSize;
+
+    private final long size;
+
+    private final String eTag;
+
+    private long position;
+
+    private S3ObjectInputStream stream;
+
+    /**
+     * 当前连接读取到的位置
+     */
+    private long streamPosition;
+
+    /**
+     * 当前连接请求范围的结束位置(不包含)
+     */
+    private long streamEnd;
+
+    private boolean open = true;
+
+    /**
+     * 读入堆外缓冲区时复用的中转数组, 按需创建
+     */
+    private byte[] scratch;
+
+    public S3SeekableByteChannel(AmazonS3 client, String bucketName, String objectName, long readAheadSize) {
+        this.client = client;
+        this.bucketName = bucketName;
+        this.objectName = objectName;
+        this.readAheadSize = Math.max(1, readAheadSize);
+        ObjectMetadata metadata = client.getObjectMetadata(bucketName, objectName);
+        this.size = metadata.getContentLength();
+        this.eTag = metadata.getETag();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (position >= size) {
+            return -1;
+        }
+        try {
+            prepareStream(dst.remaining());
+            int length = (int) Math.min(dst.remaining(), streamEnd - streamPosition);
+            int read;
+            if (dst.hasArray()) {
+                read = stream.read(dst.array(), dst.arrayOffset() + dst.position(), length);
+                if (read > 0) {
+                    dst.position(dst.position() + read);
+                }
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[SCRATCH_SIZE];
+                }
+                read = stream.read(scratch, 0, Math.min(length, scratch.length));
+                if (read > 0) {
+                    dst.put(scratch, 0, read);
+                }
+            }
+            if (read < 0) {
+                throw new IOException(String.format("unexpected end of object [%s] at position %s", objectName, streamPosition));
+            }
+            position += read;
+            streamPosition += read;
+            return read;
+        } catch (SdkClientException e) {
+            abortStream();
+            throw new IOException(e);
+        } catch (IOException e) {
+            // 连接可能已经损坏(例如读取超时), 下次读取时重新请求
+            abortStream();
+            throw e;
+        }
+    }
+
+    /**
+     * 保证当前连接可以从 position 开始读取
+     */
+    private void prepareStream(int wanted) throws IOException {
+        if (stream != null && position >= streamPosition && position < streamEnd && position - streamPosition <= SKIP_LIMIT) {
+            skip(position - streamPosition);
+            return;
+        }
+        closeStream();
+        long end = Math.min(size, position + Math.max(readAheadSize, wanted));
+        GetObjectRequest request = new GetObjectRequest(bucketName, objectName)
+                .withRange(position, end - 1)
+                .withMatchingETagConstraint(eTag);
+        S3Object object = client.getObject(request);
+        if (object == null) {
+            throw new IOException(String.format("bucket name: [%s], object name [%s] changed while reading", bucketName, objectName));
+        }
+        Long[] range = object.getObjectMetadata().getContentRange();
+        if (range == null && position == 0) {
+            // 服务端忽略了范围请求, 返回的完整对象同样从 0 开始
+            end = size;
+        } else if (range == null || range[0] != position || range[1] != end - 1) {
+            object.getObjectContent().abort();
+            throw new IOException(String.format("bucket name: [%s], object name [%s] returned range %s, expected [%s-%s]",
+                    bucketName, objectName, range == null ? "[whole object]" : "[" + range[0] + "-" + range[1] + "]", position, end - 1));
+        }
+        stream = object.getObjectContent();
+        streamPosition = position;
+        streamEnd = end;
+    }
+
+    private void skip(long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = stream.skip(remaining);
+            if (skipped <= 0) {
+                if (stream.read() < 0) {
+                    throw new IOException(String.format("unexpected end of object [%s] at position %s", objectName, streamPosition));
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+            streamPosition += skipped;
+        }
+    }
+
+    private void abortStream() {
+        if (stream != null) {
+            stream.abort();
+            stream = null;
+        }
+    }
+
+    private void closeStream() {
+        if (stream == null) {
+            return;
+        }
+        S3ObjectInputStream current = stream;
+        stream = null;
+        try {
+            if (streamEnd - streamPosition <= DRAIN_LIMIT) {
+                byte[] buffer = new byte[(int) DRAIN_LIMIT];
+                while (current.read(buffer) >= 0) {
+                    // 读完剩余数据后连接可以被复用
+                }
+                current.close();
+            } else {
+                current.abort();
+            }
+        } catch (IOException | SdkClientException e) {
+            current.abort();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("position must not be negative");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (open) {
+            closeStream();
+            open = false;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.springframework.util.DigestUtils;
+
+import com.opcooc.storage.args.UploadArgs;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 分片上传断点记录
+ * <pre>
+ * 每个上传任务对应一个本地文件, 文件头记录 uploadId 和源文件信息,
+ * 每完成一个分片追加一行 part.{partNumber}={eTag}, 续传时与服务端的分片列表核对, 上传完成后删除.
+ * </pre>
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+@Slf4j
+public class UploadCheckpoint {
+
+    private static final String UPLOAD_ID = "uploadId";
+    private static final String BUCKET_NAME = "bucketName";
+    private static final String OBJECT_NAME = "objectName";
+    private static final String FILE_PATH = "filePath";
+    private static final String FILE_LENGTH = "fileLength";
+    private static final String FILE_LAST_MODIFIED = "fileLastModified";
+    private static final String PART_SIZE = "partSize";
+    private static final String PART_PREFIX = "part.";
+
+    private final Path path;
+
+    private final Properties properties;
+
+    /**
+     * 记录中已经完成的分片
+     */
+    @Getter
+    private final Map<Integer, String> parts = new TreeMap<>();
+
+    private Writer writer;
+
+    private UploadCheckpoint(Path path, Properties properties) {
+        this.path = path;
+        this.properties = properties;
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(PART_PREFIX)) {
+                parts.put(Integer.valueOf(name.substring(PART_PREFIX.length())), properties.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * 断点记录文件位置
+     *
+     * @param directory 断点记录目录
+     * @param endpoint  访问域名
+     * @param args      参数
+     * @return 文件位置
+     */
+    public static Path resolve(String directory, String endpoint, UploadArgs args) {
+        String id = String.join("\n", endpoint, args.getBucketName(), args.getObjectName(), args.getFile().getAbsolutePath());
+        return Path.of(directory, DigestUtils.md5DigestAsHex(id.getBytes(StandardCharsets.UTF_8)) + ".checkpoint");
+    }
+
+    /**
+     * 读取断点记录
+     *
+     * @param path 文件位置
+     * @return 断点记录, 不存在或无法读取时返回 null
+     */
+    public static UploadCheckpoint load(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            return new UploadCheckpoint(path, properties);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("opcooc-storage - ignore unreadable upload checkpoint [{}]", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * 创建新的断点记录
+     *
+     * @param path     文件位置
+     * @param uploadId 分片上传id
+     * @param args     参数
+     * @param partSize 分片大小
+     * @return 断点记录
+     */
+    public static UploadCheckpoint create(Path path, String uploadId, UploadArgs args, long partSize) throws IOException {
+        File file = args.getFile();
+        Properties properties = new Properties();
+        properties.setProperty(UPLOAD_ID, uploadId);
+        properties.setProperty(BUCKET_NAME, args.getBucketName());
+        properties.setProperty(OBJECT_NAME, args.getObjectName());
+        properties.setProperty(FILE_PATH, file.getAbsolutePath());
+        properties.setProperty(FILE_LENGTH, String.valueOf(file.length()));
+        properties.setProperty(FILE_LAST_MODIFIED, String.valueOf(file.lastModified()));
+        properties.setProperty(PART_SIZE, String.valueOf(partSize));
+
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(out, "opcooc-storage multipart upload checkpoint");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new UploadCheckpoint(path, properties);
+    }
+
+    public String getUploadId() {
+        return properties.getProperty(UPLOAD_ID);
+    }
+
+    /**
+     * 断点记录是否属于当前上传(源文件未修改且分片大小一致)
+     *
+     * @param args     参数
+     * @param partSize 分片大小
+     * @return 是否匹配
+     */
+    public boolean matches(UploadArgs args, long partSize) {
+        File file = args.getFile();
+        return args.getBucketName().equals(properties.getProperty(BUCKET_NAME))
+                && args.getObjectName().equals(properties.getProperty(OBJECT_NAME))
+                && file.getAbsolutePath().equals(properties.getProperty(FILE_PATH))
+                && String.valueOf(file.length()).equals(properties.getProperty(FILE_LENGTH))
+                && String.valueOf(file.lastModified()).equals(properties.getProperty(FILE_LAST_MODIFIED))
+                && String.valueOf(partSize).equals(properties.getProperty(PART_SIZE));
+    }
+
+    /**
+     * 追加已完成的分片
+     *
+     * @param partNumber 分片序号
+     * @param eTag       分片ETag
+     */
+    public synchronized void addPart(int partNumber, String eTag) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            }
+            writer.write(PART_PREFIX + partNumber + "=" + eTag + System.lineSeparator());
+            writer.flush();
+        } catch (IOException e) {
+            // 服务端的分片列表才是最终依据, 记录失败不影响本次上传
+            log.warn("opcooc-storage - write upload checkpoint [{}] failed", path, e);
+        }
+        parts.put(partNumber, eTag);
+    }
+
+    /**
+     * 关闭记录文件
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("opcooc-storage - close upload checkpoint [{}] failed", path, e);
+        }
+        writer = null;
+    }
+
+    /**
+     * 上传完成或记录失效后删除
+     */
+    public void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("opcooc-storage - delete upload checkpoint [{}] failed", path, e);
+        }
+    }
+
+}
@@ -15,10 +15,14 @@
  */
 package com.opcooc.storage.spring.boot.autoconfigure;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+
 import com.opcooc.storage.constant.DriverType;
 import org.springframework.util.StringUtils;
 
 import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.toolkit.StorageChecker;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -76,6 +80,122 @@ public class DriverProperties {
      */
     private Boolean autoCreateBucket = false;
 
+    /**
+     * 读取对象前是否先检查对象是否存在(额外发送一次HEAD请求), 默认关闭, 对象不存在时由读取请求直接返回异常
+     */
+    private Boolean checkObjectExist = false;
+
+    /**
+     * 分片上传阈值(字节), 文件大小超过该值时使用分片上传, 默认16MB
+     */
+    private Long multipartThreshold = 16L * 1024 * 1024;
+
+    /**
+     * 分片大小(字节), 不能小于5MB, 默认8MB
+     */
+    private Long partSize = 8L * 1024 * 1024;
+
+    /**
+     * 分片并发数(同一个客户端驱动共享), 默认4
+     */
+    private Integer concurrency = 4;
+
+    /**
+     * 批量操作并发数(同一个客户端驱动共享), 默认8
+     */
+    private Integer batchConcurrency = 8;
+
+    /**
+     * 列举请求并发数(同一个客户端驱动共享), 用于预取下一页和并行列举, 默认8
+     */
+    private Integer listConcurrency = 8;
+
+    /**
+     * 服务端分片复制阈值(字节), 源对象超过该大小时使用分片复制, 默认128MB
+     */
+    private Long multipartCopyThreshold = 128L * 1024 * 1024;
+
+    /**
+     * 服务端分片复制的分片大小(字节), 默认64MB
+     */
+    private Long copyPartSize = 64L * 1024 * 1024;
+
+    /**
+     * 断点续传记录目录, 默认为系统临时目录下的 opcooc-storage/checkpoint
+     */
+    private String checkpointDir = Paths.get(System.getProperty("java.io.tmpdir"), "opcooc-storage", "checkpoint").toString();
+
+    /**
+     * 随机访问通道每次范围请求的最小长度(字节), 默认1MB
+     */
+    private Long readAheadSize = 1024L * 1024;
+
+    /**
+     * 对象读取的本地磁盘缓存目录, 为空时不开启, 每个客户端驱动使用其下的独立子目录
+     */
+    private String diskCacheDir;
+
+    /**
+     * 磁盘缓存总大小上限(字节), 默认1GB
+     */
+    private Long diskCacheMaxSize = 1024L * 1024 * 1024;
+
+    /**
+     * 可以写入磁盘缓存的单个对象大小上限(字节), 默认64MB
+     */
+    private Long diskCacheMaxObjectSize = 64L * 1024 * 1024;
+
+    /**
+     * 缓存命中后重新校验ETag的间隔, 默认60秒
+     */
+    private Duration cacheRevalidateInterval = Duration.ofSeconds(60);
+
+    /**
+     * 小对象堆外内存缓存总大小(字节), 为0时不开启, 开启时不能小于1MB
+     */
+    private Long memoryCacheMaxSize = 0L;
+
+    /**
+     * 可以写入内存缓存的单个对象大小上限(字节), 不能超过1MB, 默认64KB
+     */
+    private Long memoryCacheMaxObjectSize = 64L * 1024;
+
+    /**
+     * 对象元数据(getObjectMetadata, objectExist)缓存有效期, 为0时不开启
+     */
+    private Duration metadataCacheTtl = Duration.ZERO;
+
+    /**
+     * 对象元数据缓存的最大数量, 默认10000
+     */
+    private Integer metadataCacheMaxSize = 10000;
+
+    /**
+     * bucket存在性缓存有效期, 有效期内不再发送检查请求, 为0时不开启(默认)
+     * 开启后其他进程删除 bucket 时, 有效期内不会自动重新创建
+     */
+    private Duration bucketCacheTtl = Duration.ZERO;
+
+    /**
+     * 是否合并同一个对象的并发完整读取(未开启本地缓存时生效), 开启后由一次下载边下载边写入临时文件供所有调用方读取, 默认关闭
+     */
+    private Boolean readCoalescing = false;
+
+    /**
+     * 合并读取的临时文件目录, 为空时使用系统临时目录
+     */
+    private String readCoalescingDir;
+
+    /**
+     * 合并读取的对象大小上限(字节), 超过时不合并直接读取, 默认64MB
+     */
+    private Long readCoalescingMaxSize = 64L * 1024 * 1024;
+
+    /**
+     * 合并读取时等待其他调用方下载数据的超时时间, 默认30秒
+     */
+    private Duration readCoalescingTimeout = Duration.ofSeconds(30);
+
     /**
      * 客户端驱动参数预处理(抛出内置异常)
      */
@@ -83,5 +203,35 @@ public class DriverProperties {
         if (!StringUtils.hasText(accessKey) || !StringUtils.hasText(secretKey) || !StringUtils.hasText(endpoint)) {
             throw new StorageException("property pre check error, params incomplete.");
         }
+        if (partSize == null || partSize < StorageChecker.MIN_PART_SIZE) {
+            throw new StorageException("property pre check error, partSize must be at least 5MB.");
+        }
+        if (copyPartSize == null || copyPartSize < StorageChecker.MIN_PART_SIZE) {
+            throw new StorageException("property pre check error, copyPartSize must be at least 5MB.");
+        }
+        if (multipartThreshold == null || multipartCopyThreshold == null || readAheadSize == null || readAheadSize < 1
+                || concurrency == null || concurrency < 1 || batchConcurrency == null || batchConcurrency < 1
+                || listConcurrency == null || listConcurrency < 1) {
+            throw new StorageException("property pre check error, multipartThreshold, multipartCopyThreshold, readAheadSize, concurrency, batchConcurrency and listConcurrency must be set and positive.");
+        }
+        if (StringUtils.hasText(diskCacheDir) && (diskCacheMaxSize == null || diskCacheMaxSize < 1
+                || diskCacheMaxObjectSize == null || cacheRevalidateInterval == null)) {
+            throw new StorageException("property pre check error, diskCacheMaxSize, diskCacheMaxObjectSize and cacheRevalidateInterval must be set.");
+        }
+        if (memoryCacheMaxSize != null && memoryCacheMaxSize > 0 && (memoryCacheMaxSize < StorageChecker.MEMORY_CACHE_SLAB_SIZE
+                || memoryCacheMaxObjectSize == null || memoryCacheMaxObjectSize < 1 || memoryCacheMaxObjectSize > StorageChecker.MEMORY_CACHE_SLAB_SIZE
+                || cacheRevalidateInterval == null)) {
+            throw new StorageException("property pre check error, memoryCacheMaxSize must be at least 1MB and memoryCacheMaxObjectSize at most 1MB.");
+        }
+        if (Boolean.TRUE.equals(readCoalescing) && (readCoalescingMaxSize == null || readCoalescingMaxSize < 0
+                || readCoalescingTimeout == null || readCoalescingTimeout.isNegative() || readCoalescingTimeout.isZero())) {
+            throw new StorageException("property pre check error, readCoalescingMaxSize and readCoalescingTimeout must be set and positive.");
+        }
+        if ((bucketCacheTtl != null && bucketCacheTtl.isNegative()) || (metadataCacheTtl != null && metadataCacheTtl.isNegative())) {
+            throw new StorageException("property pre check error, bucketCacheTtl and metadataCacheTtl must not be negative.");
+        }
+        if (metadataCacheTtl != null && !metadataCacheTtl.isZero() && (metadataCacheMaxSize == null || metadataCacheMaxSize < 1)) {
+            throw new StorageException("property pre check error, metadataCacheMaxSize must be at least 1.");
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2020-2030 organization opcooc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opcooc.storage.support;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 合并同一个 key 的并发调用
+ * 第一个调用方执行任务, 执行期间到达的调用方等待并共享其结果或异常, 任务结束后不保留结果
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+public class SingleFlight<V> {
+
+    private final Map<String, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * 执行任务
+     *
+     * @param key  合并的依据
+     * @param task 任务
+     * @return 结果
+     */
+    public V execute(String key, Supplier<V> task) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                // 任务只会以 RuntimeException 或 Error 结束
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        try {
+            V result = task.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+}
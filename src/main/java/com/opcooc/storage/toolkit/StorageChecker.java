@@ -41,6 +41,14 @@ public class StorageChecker {
     // 最多 7 天
     public static final long MAX_EXPIRY_TIME = 60 * 24 * 7L;
     public static final long MAX_OBJECT_SIZE = 5L * 1024 * 1024 * 1024 * 1024;
+    // 分片最小 5MB (最后一个分片除外)
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    // 分片最大 5GB
+    public static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+    // 单次分片上传最多 10000 个分片
+    public static final int MAX_PART_COUNT = 10000;
+    // 内存缓存按 1MB 的 slab 申请, 单个对象不能超过一个 slab
+    public static final int MEMORY_CACHE_SLAB_SIZE = 1024 * 1024;
     private static final String SYMBOL = "/";
     /**
      * Check compliance with Amazon S3 standards
@@ -15,10 +15,28 @@
  */
 package com.opcooc.storage.toolkit;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.amazonaws.services.s3.internal.ServiceUtils;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.BinaryUtils;
 import com.opcooc.storage.args.ObjectArgs;
+import com.opcooc.storage.exception.StorageException;
 import com.opcooc.storage.model.FileBasicInfo;
 
 /**
@@ -41,11 +59,21 @@ public class StorageUtils {
         return info;
     }
 
+    public static FileBasicInfo createFileBasicInfo(CompleteMultipartUploadResult result, ObjectArgs args, Long contentLength) {
+        FileBasicInfo info = new FileBasicInfo();
+        info.setETag(result.getETag());
+        info.setBucketName(args.getBucketName());
+        info.setKey(args.getObjectName());
+        info.setContentLength(contentLength);
+        return info;
+    }
+
     public static FileBasicInfo createFileBasicInfo(S3ObjectSummary result, ObjectArgs args) {
         FileBasicInfo info = new FileBasicInfo();
         info.setKey(result.getKey());
         info.setContentLength(result.getSize());
         info.setBucketName(args.getBucketName());
+        info.setETag(result.getETag());
         info.setLastModified(result.getLastModified());
         return info;
     }
@@ -62,4 +90,234 @@ public class StorageUtils {
         return info;
     }
 
+    /**
+     * 计算分片大小, 保证分片数量不超过 {@link StorageChecker#MAX_PART_COUNT}
+     *
+     * @param contentLength 文件大小
+     * @param partSize      配置的分片大小
+     * @return 实际使用的分片大小
+     */
+    public static long determinePartSize(long contentLength, long partSize) {
+        long minPartSize = (contentLength + StorageChecker.MAX_PART_COUNT - 1) / StorageChecker.MAX_PART_COUNT;
+        long result = Math.max(partSize, minPartSize);
+        if (result > StorageChecker.MAX_PART_SIZE) {
+            throw new StorageException("object size %s is too large for multipart upload", contentLength);
+        }
+        return result;
+    }
+
+    /**
+     * 计算分片数量
+     *
+     * @param contentLength 文件大小
+     * @param partSize      分片大小
+     * @return 分片数量(至少为1)
+     */
+    public static int partCount(long contentLength, long partSize) {
+        return (int) Math.max(1, (contentLength + partSize - 1) / partSize);
+    }
+
+    /**
+     * 等待所有任务完成, 任意任务失败时取消剩余任务
+     * 取消时不中断正在执行的任务: 分片共享同一个 FileChannel, 中断阻塞在读写上的线程会关闭该通道
+     *
+     * @param futures 任务
+     * @param <T>     结果类型
+     * @return 按提交顺序排列的结果
+     */
+    public static <T> List<T> awaitAll(List<Future<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(false));
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) {
+                throw (StorageException) cause;
+            }
+            if (cause instanceof Exception) {
+                throw new StorageException((Exception) cause);
+            }
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 等待所有任务完成, 任意任务失败时等待其余任务结束后再抛出异常
+     * <pre>
+     * 与 {@link #awaitAll(List)} 不同, 失败时不取消任务而是设置 cancelled 标记,
+     * 尚未开始的任务检查该标记后直接结束, 已经开始的任务执行完成, 方法返回或抛出异常时没有仍在执行的任务.
+     * 用于失败后需要清理服务端状态的场景(例如取消分片上传), 避免清理之后仍有请求到达服务端.
+     * </pre>
+     *
+     * @param futures   任务
+     * @param cancelled 取消标记
+     * @param <T>       结果类型
+     * @return 按提交顺序排列的结果
+     */
+    public static <T> List<T> awaitAll(List<Future<T>> futures, AtomicBoolean cancelled) {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            awaitQuietly(futures, cancelled);
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+        } catch (ExecutionException e) {
+            awaitQuietly(futures, cancelled);
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) {
+                throw (StorageException) cause;
+            }
+            if (cause instanceof Exception) {
+                throw new StorageException((Exception) cause);
+            }
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * 设置取消标记并等待所有任务结束, 忽略任务的结果和异常
+     *
+     * @param futures   任务
+     * @param cancelled 取消标记
+     */
+    public static void awaitQuietly(List<? extends Future<?>> futures, AtomicBoolean cancelled) {
+        cancelled.set(true);
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // 正在执行的任务仍会访问服务端, 必须等待其结束
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 计算本地文件上传后的ETag, 与分片上传的规则保持一致
+     * <pre>
+     * 普通上传: md5(文件)
+     * 分片上传: md5(md5(分片1) + md5(分片2) + ...) + "-" + 分片数量
+     * </pre>
+     *
+     * @param file               文件
+     * @param multipartThreshold 分片上传阈值
+     * @param partSize           分片大小
+     * @return ETag(不包含引号)
+     */
+    public static String calculateETag(File file, long multipartThreshold, long partSize) {
+        long contentLength = file.length();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            if (contentLength <= multipartThreshold) {
+                return BinaryUtils.toHex(md5(channel, 0, contentLength, buffer));
+            }
+            long size = determinePartSize(contentLength, partSize);
+            int partCount = partCount(contentLength, size);
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            for (int i = 0; i < partCount; i++) {
+                long offset = i * size;
+                digest.update(md5(channel, offset, Math.min(size, contentLength - offset), buffer));
+            }
+            return BinaryUtils.toHex(digest.digest()) + "-" + partCount;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static byte[] md5(FileChannel channel, long offset, long length, ByteBuffer buffer) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of file");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+        return digest.digest();
+    }
+
+    /**
+     * 比较ETag(忽略引号和大小写)
+     *
+     * @param eTag  ETag
+     * @param other ETag
+     * @return 是否一致
+     */
+    public static boolean eTagEquals(String eTag, String other) {
+        return eTag != null && other != null && ServiceUtils.removeQuotes(eTag).equalsIgnoreCase(ServiceUtils.removeQuotes(other));
+    }
+
+    /**
+     * 两个字符串的公共前缀
+     *
+     * @param a 字符串
+     * @param b 字符串
+     * @return 公共前缀
+     */
+    public static String commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return a.substring(0, i);
+    }
+
+    /**
+     * 按 UTF-8 字节顺序比较对象名称(与 S3 列举结果的顺序一致)
+     * String.compareTo 按 UTF-16 编码比较, 代理对字符会排在 U+E000~U+FFFF 之前, 与 UTF-8 顺序不同
+     *
+     * @param a 对象名称
+     * @param b 对象名称
+     * @return 比较结果
+     */
+    public static int compareUtf8(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                return utf8Order(x) - utf8Order(y);
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * 代理对字符移到 U+FFFF 之后的位置, 其余字符顺序不变
+     */
+    private static int utf8Order(char c) {
+        if (c < Character.MIN_SURROGATE) {
+            return c;
+        }
+        return Character.isSurrogate(c) ? c + 0x2000 : c - 0x800;
+    }
+
 }
@@ -0,0 +1,137 @@
+package com.opcooc.storage;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import com.opcooc.storage.adapter.DriverAdapter;
+import com.opcooc.storage.args.BucketArgs;
+import com.opcooc.storage.args.ListObjectArgs;
+import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.model.BatchResult;
+import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.service.NFSService;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+import com.opcooc.storage.support.DriverAdapterManager;
+
+/**
+ * 存储客户端参数处理测试(模拟客户端驱动)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class StorageHelperTest {
+
+    @TempDir
+    Path directory;
+
+    private NFSService connect;
+
+    private DriverProperties properties;
+
+    private StorageHelper helper;
+
+    /**
+     * 客户端驱动收到的批量上传参数
+     */
+    private final List<UploadArgs> uploaded = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        connect = mock(NFSService.class);
+        properties = new DriverProperties();
+        properties.setDefaultBucket("bucket-a");
+        DriverAdapterManager manager = new DriverAdapterManager();
+        manager.addClientDriver("s3", new DriverAdapter() {
+            @Override
+            public String driver() {
+                return "s3";
+            }
+
+            @Override
+            public NFSService connect() {
+                return connect;
+            }
+
+            @Override
+            public DriverProperties configuration() {
+                return properties;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        helper = new StorageHelper(manager);
+        when(connect.doesBucketExist(any(BucketArgs.class))).thenAnswer(invocation ->
+                !"missing".equals(invocation.<BucketArgs>getArgument(0).getBucketName()));
+        when(connect.uploadObjects(any())).thenAnswer(invocation -> {
+            Collection<UploadArgs> args = invocation.getArgument(0);
+            uploaded.addAll(args);
+            return args.stream().map(item -> BatchResult.success(item.getBucketName(), item.getObjectName(), new FileBasicInfo())).collect(toList());
+        });
+    }
+
+    UploadArgs upload(String bucketName, String objectName) throws IOException {
+        Path file = Files.write(Files.createTempFile(directory, "upload", ".bin"), new byte[]{1});
+        return UploadArgs.builder().bucketName(bucketName).objectName(objectName).file(file.toFile()).build();
+    }
+
+    @Test
+    void uploadObjectsChecksEachDistinctBucketOnce() throws IOException {
+        List<BatchResult<FileBasicInfo>> results = helper.uploadObjects(Arrays.asList(
+                upload("bucket-a", "1"), upload("bucket-b", "2"), upload(null, "3"), upload("bucket-b", "4"), upload("bucket-a", "5")));
+
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+        assertEquals(Arrays.asList("bucket-a", "bucket-b", "bucket-a", "bucket-b", "bucket-a"),
+                uploaded.stream().map(UploadArgs::getBucketName).collect(toList()));
+        verify(connect, times(2)).doesBucketExist(any(BucketArgs.class));
+    }
+
+    @Test
+    void uploadObjectsFailsOnlyTheItemsOfAMissingBucket() throws IOException {
+        List<BatchResult<FileBasicInfo>> results = helper.uploadObjects(Arrays.asList(
+                upload("missing", "1"), upload("bucket-a", "2"), upload("missing", "3"), upload("bucket-a", "")));
+
+        assertEquals(Arrays.asList("1", "2", "3", ""), results.stream().map(BatchResult::getObjectName).collect(toList()));
+        assertFalse(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+        // 参数校验失败的对象同样只影响自己
+        assertFalse(results.get(3).isSuccess());
+        assertEquals(Arrays.asList("2"), uploaded.stream().map(UploadArgs::getObjectName).collect(toList()));
+        verify(connect, times(2)).doesBucketExist(any(BucketArgs.class));
+    }
+
+    @Test
+    void determineBucketPassesUseCacheToTheDriver() {
+        helper.listObjectsPage(ListObjectArgs.builder().objectName("a/").build());
+        helper.listObjectsPage(ListObjectArgs.builder().objectName("a/").useCache(false).build());
+        helper.listObjectsPage(ListObjectArgs.builder().objectName("a/").checkExist(false).build());
+
+        ArgumentCaptor<BucketArgs> checks = ArgumentCaptor.forClass(BucketArgs.class);
+        verify(connect, times(2)).doesBucketExist(checks.capture());
+        assertEquals(Arrays.asList(true, false), checks.getAllValues().stream().map(BucketArgs::getUseCache).collect(toList()));
+        assertEquals("bucket-a", checks.getValue().getBucketName());
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.opcooc.storage.args;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.opcooc.storage.exception.StorageException;
+
+/**
+ * 并行列举参数校验测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class ParallelListObjectArgsTest {
+
+    @Test
+    void startAfterIsAccepted() {
+        ParallelListObjectArgs args = ParallelListObjectArgs.builder().bucketName("bucket").startAfter("a").build();
+
+        assertDoesNotThrow(args::validate);
+    }
+
+    @Test
+    void delimiterIsRejected() {
+        ParallelListObjectArgs args = ParallelListObjectArgs.builder().bucketName("bucket").delimiter("/").build();
+
+        assertThrows(StorageException.class, args::validate);
+    }
+
+    @Test
+    void continuationTokenIsRejected() {
+        ParallelListObjectArgs args = ParallelListObjectArgs.builder().bucketName("bucket").continuationToken("token").build();
+
+        assertThrows(StorageException.class, args::validate);
+    }
+
+}
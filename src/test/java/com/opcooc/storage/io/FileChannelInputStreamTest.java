@@ -0,0 +1,98 @@
+package com.opcooc.storage.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 文件区域输入流测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class FileChannelInputStreamTest {
+
+    @TempDir
+    Path directory;
+
+    byte[] write(int length) throws IOException {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        Files.write(directory.resolve("data.bin"), content);
+        return content;
+    }
+
+    FileChannel open() throws IOException {
+        return FileChannel.open(directory.resolve("data.bin"), StandardOpenOption.READ);
+    }
+
+    @Test
+    void readsOnlyTheRegion() throws IOException {
+        byte[] content = write(1000);
+        try (FileChannel channel = open()) {
+            FileChannelInputStream in = new FileChannelInputStream(channel, 100, 300);
+
+            assertEquals(300, in.available());
+            assertArrayEquals(Arrays.copyOfRange(content, 100, 400), in.readAllBytes());
+            assertEquals(-1, in.read());
+            assertEquals(0, in.available());
+        }
+    }
+
+    @Test
+    void singleByteReadsAreUnsigned() throws IOException {
+        byte[] content = write(64);
+        try (FileChannel channel = open()) {
+            FileChannelInputStream in = new FileChannelInputStream(channel, 0, content.length);
+
+            for (byte expected : content) {
+                assertEquals(expected & 0xff, in.read());
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void skipAndResetStayInsideTheRegion() throws IOException {
+        byte[] content = write(1000);
+        try (FileChannel channel = open()) {
+            FileChannelInputStream in = new FileChannelInputStream(channel, 500, 100);
+
+            assertEquals(40, in.skip(40));
+            in.mark(0);
+            assertEquals(content[540] & 0xff, in.read());
+            in.reset();
+            assertEquals(60, in.skip(1000));
+            assertEquals(-1, in.read());
+
+            in.reset();
+            assertArrayEquals(Arrays.copyOfRange(content, 540, 600), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void sharedChannelPositionIsNotMoved() throws IOException {
+        write(1000);
+        try (FileChannel channel = open()) {
+            channel.position(10);
+            FileChannelInputStream first = new FileChannelInputStream(channel, 0, 500);
+            FileChannelInputStream second = new FileChannelInputStream(channel, 500, 500);
+
+            assertEquals(500, first.readAllBytes().length);
+            assertEquals(500, second.readAllBytes().length);
+            assertEquals(10, channel.position());
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.opcooc.storage.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * 对象输入流传输测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class StreamTransferTest {
+
+    @TempDir
+    Path directory;
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    Path write(byte[] content) throws IOException {
+        return Files.write(directory.resolve("source.bin"), content);
+    }
+
+    /**
+     * 每次最多接受 limit 字节的通道, limit 为 0 时模拟没有进展的非阻塞通道
+     */
+    static class LimitedChannel implements WritableByteChannel {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        private final int limit;
+
+        LimitedChannel(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(limit, src.remaining());
+            for (int i = 0; i < count; i++) {
+                written.write(src.get());
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    @Test
+    void bufferedCopyToOutputStream() throws IOException {
+        byte[] content = randomBytes(200 * 1024 + 17);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        S3ObjectInputStream in = new S3ObjectInputStream(new ByteArrayInputStream(content), new HttpGet());
+
+        assertEquals(content.length, StreamTransfer.transfer(in, out));
+
+        assertArrayEquals(content, out.toByteArray());
+        assertFalse(in.getHttpRequest().isAborted());
+    }
+
+    @Test
+    void fileSourceIsTransferredToFileOutputStream() throws IOException {
+        byte[] content = randomBytes(300 * 1024);
+        Path source = write(content);
+        Path target = directory.resolve("target.bin");
+        S3ObjectInputStream in = new S3ObjectInputStream(new FileInputStream(source.toFile()), new HttpGet());
+
+        try (FileOutputStream out = new FileOutputStream(target.toFile())) {
+            assertEquals(content.length, StreamTransfer.transfer(in, out));
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    void partialWritesAreCompleted() throws IOException {
+        byte[] content = randomBytes(10 * 1024 + 3);
+        LimitedChannel buffered = new LimitedChannel(1000);
+        LimitedChannel file = new LimitedChannel(1000);
+
+        StreamTransfer.transfer(new ByteArrayInputStream(content), buffered);
+        StreamTransfer.transfer(new FileInputStream(write(content).toFile()), file);
+
+        assertArrayEquals(content, buffered.written.toByteArray());
+        assertArrayEquals(content, file.written.toByteArray());
+    }
+
+    @Test
+    void channelWithoutProgressFailsInsteadOfSpinning() throws IOException {
+        byte[] content = randomBytes(1024);
+        Path source = write(content);
+
+        assertThrows(IOException.class, () -> StreamTransfer.transfer(new FileInputStream(source.toFile()), new LimitedChannel(0)));
+        assertThrows(IOException.class, () -> StreamTransfer.transfer(new ByteArrayInputStream(content), new LimitedChannel(0)));
+    }
+
+    @Test
+    void failedTransferAbortsTheConnection() {
+        S3ObjectInputStream in = new S3ObjectInputStream(new ByteArrayInputStream(randomBytes(1024)), new HttpGet());
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("client disconnected");
+            }
+        };
+
+        assertThrows(IOException.class, () -> StreamTransfer.transfer(in, out));
+
+        assertTrue(in.getHttpRequest().isAborted());
+    }
+
+    @Test
+    void inputStreamIsClosedAfterTransfer() throws IOException {
+        boolean[] closed = new boolean[1];
+        InputStream in = new ByteArrayInputStream(new byte[10]) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        StreamTransfer.transfer(in, new ByteArrayOutputStream());
+
+        assertTrue(closed[0]);
+    }
+
+}
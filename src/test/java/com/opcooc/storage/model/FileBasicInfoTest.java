@@ -0,0 +1,85 @@
+package com.opcooc.storage.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.s3.Headers;
+
+/**
+ * 对象信息测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class FileBasicInfoTest {
+
+    static FileBasicInfo listed() {
+        FileBasicInfo info = new FileBasicInfo();
+        info.setBucketName("bucket");
+        info.setKey("a/b.txt");
+        info.setETag("etag");
+        info.setContentLength(10L);
+        info.setLastModified(new Date(1000L));
+        return info;
+    }
+
+    @Test
+    void gettersDoNotChangeHashSetMembership() {
+        FileBasicInfo info = listed();
+        Set<FileBasicInfo> set = new HashSet<>();
+        set.add(info);
+
+        info.getMetadata();
+        info.getUserMetadata();
+
+        assertTrue(set.contains(info));
+        assertTrue(set.contains(listed()));
+    }
+
+    @Test
+    void equalityIgnoresWhichGettersWereCalled() {
+        FileBasicInfo first = listed();
+        FileBasicInfo second = listed();
+
+        first.getMetadata();
+        second.getUserMetadata();
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    void metadataContentTakesPartInEquality() {
+        FileBasicInfo first = listed();
+        FileBasicInfo second = listed();
+
+        second.getMetadata().put(Headers.CONTENT_TYPE, "text/plain");
+        assertNotEquals(first, second);
+
+        first.getMetadata().put(Headers.CONTENT_TYPE, "text/plain");
+        assertEquals(first, second);
+
+        second.getUserMetadata().put("owner", "a");
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void lastModifiedIsVisibleThroughTheMetadataMap() {
+        FileBasicInfo info = listed();
+
+        assertEquals(new Date(1000L), info.getRawMetadataValue(Headers.LAST_MODIFIED));
+        assertEquals(new Date(1000L), info.getMetadata().get(Headers.LAST_MODIFIED));
+
+        info.setLastModified(new Date(2000L));
+        assertEquals(new Date(2000L), info.getMetadata().get(Headers.LAST_MODIFIED));
+        assertEquals(new Date(2000L), info.getLastModified());
+    }
+
+}
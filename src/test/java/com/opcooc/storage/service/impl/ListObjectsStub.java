@@ -0,0 +1,67 @@
+package com.opcooc.storage.service.impl;
+
+import java.util.Collection;
+import java.util.TreeSet;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.opcooc.storage.toolkit.StorageUtils;
+
+/**
+ * 按 S3 的规则(UTF-8 顺序, prefix/delimiter/startAfter/continuationToken/maxKeys)在内存中列举对象
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class ListObjectsStub {
+
+    private final TreeSet<String> keys = new TreeSet<>(StorageUtils::compareUtf8);
+
+    ListObjectsStub(Collection<String> keys) {
+        this.keys.addAll(keys);
+    }
+
+    ListObjectsV2Result list(ListObjectsV2Request request) {
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        String delimiter = request.getDelimiter();
+        int maxKeys = request.getMaxKeys() == null ? 1000 : request.getMaxKeys();
+        // continuationToken 为上一页最后返回的对象名称或公共前缀
+        String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(request.getBucketName());
+        int count = 0;
+        String last = null;
+        for (String key : after == null ? keys : keys.tailSet(after, false)) {
+            if (!key.startsWith(prefix) || last != null && isDelimited(last, delimiter) && key.startsWith(last)
+                    || request.getContinuationToken() != null && isDelimited(after, delimiter) && key.startsWith(after)) {
+                continue;
+            }
+            if (count == maxKeys) {
+                result.setTruncated(true);
+                result.setNextContinuationToken(last);
+                return result;
+            }
+            int index = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (index >= 0) {
+                last = key.substring(0, index + delimiter.length());
+                result.getCommonPrefixes().add(last);
+            } else {
+                last = key;
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setBucketName(request.getBucketName());
+                summary.setKey(key);
+                summary.setSize(key.length());
+                result.getObjectSummaries().add(summary);
+            }
+            count++;
+        }
+        return result;
+    }
+
+    private static boolean isDelimited(String value, String delimiter) {
+        return delimiter != null && value.endsWith(delimiter);
+    }
+
+}
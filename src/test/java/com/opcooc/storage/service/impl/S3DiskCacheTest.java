@@ -0,0 +1,213 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 本地磁盘缓存测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3DiskCacheTest {
+
+    @TempDir
+    Path baseDirectory;
+
+    private AmazonS3 client;
+
+    private DriverProperties properties;
+
+    private S3DiskCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        client = mock(AmazonS3.class);
+        properties = new DriverProperties();
+        properties.setDiskCacheMaxSize(100L);
+        properties.setDiskCacheMaxObjectSize(100L);
+        properties.setCacheRevalidateInterval(Duration.ofHours(1));
+        when(client.getObject(any(String.class), any(String.class)))
+                .thenAnswer(invocation -> object(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(1) + "-content"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    static S3Object object(String bucketName, String objectName, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        metadata.setHeader("ETag", "etag-" + content);
+        S3Object object = new S3Object();
+        object.setBucketName(bucketName);
+        object.setKey(objectName);
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new ByteArrayInputStream(bytes));
+        return object;
+    }
+
+    static String read(S3Object object) throws IOException {
+        try (InputStream in = object.getObjectContent()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    S3DiskCache open() throws IOException {
+        cache = new S3DiskCache(client, baseDirectory, "test", properties);
+        return cache;
+    }
+
+    /**
+     * 当前实例缓存目录中的数据文件
+     */
+    List<Path> dataFiles() throws IOException {
+        try (Stream<Path> directories = Files.list(baseDirectory)) {
+            Path directory = directories.filter(Files::isDirectory).findFirst().orElseThrow();
+            try (Stream<Path> files = Files.list(directory)) {
+                return files.filter(file -> !file.getFileName().toString().equals(".lock")).collect(Collectors.toList());
+            }
+        }
+    }
+
+    @Test
+    void secondReadIsServedFromDisk() throws IOException {
+        S3DiskCache cache = open();
+
+        assertEquals("a-content", read(cache.getObject("bucket", "a")));
+        assertEquals("a-content", read(cache.getObject("bucket", "a")));
+
+        verify(client, times(1)).getObject(any(String.class), any(String.class));
+        assertEquals(1, dataFiles().size());
+    }
+
+    @Test
+    void expiredEntryIsRevalidatedWithETag() throws IOException {
+        properties.setCacheRevalidateInterval(Duration.ZERO);
+        S3DiskCache cache = open();
+        read(cache.getObject("bucket", "a"));
+        // 304 未修改时 SDK 返回 null
+        when(client.getObject(any(GetObjectRequest.class))).thenReturn(null);
+
+        assertEquals("a-content", read(cache.getObject("bucket", "a")));
+
+        verify(client, times(1)).getObject(any(String.class), any(String.class));
+        verify(client, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    void evictedFileIsKeptUntilTheLastReaderCloses() throws IOException {
+        properties.setDiskCacheMaxSize(12L);
+        S3DiskCache cache = open();
+        InputStream reader = cache.getObject("bucket", "a").getObjectContent();
+
+        // b 写入后总大小超过上限, a 被淘汰
+        read(cache.getObject("bucket", "b"));
+        assertEquals(2, dataFiles().size());
+        assertEquals("a-content", new String(reader.readAllBytes(), StandardCharsets.UTF_8));
+
+        reader.close();
+        assertEquals(1, dataFiles().size());
+        read(cache.getObject("bucket", "a"));
+        verify(client, times(3)).getObject(any(String.class), any(String.class));
+    }
+
+    @Test
+    void invalidateDuringFillDoesNotCacheTheStaleData() throws IOException {
+        S3DiskCache cache = open();
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> {
+            S3Object object = object("bucket", "a", "old");
+            // 读取期间对象被修改
+            cache.invalidate("bucket", "a");
+            return object;
+        }).thenAnswer(invocation -> object("bucket", "a", "new"));
+
+        assertEquals("old", read(cache.getObject("bucket", "a")));
+        assertEquals("new", read(cache.getObject("bucket", "a")));
+        assertEquals("new", read(cache.getObject("bucket", "a")));
+
+        verify(client, times(2)).getObject(any(String.class), any(String.class));
+        assertEquals(1, dataFiles().size());
+    }
+
+    @Test
+    void objectsLargerThanMaxObjectSizeAreNotCached() throws IOException {
+        properties.setDiskCacheMaxObjectSize(4L);
+        S3DiskCache cache = open();
+
+        assertEquals("a-content", read(cache.getObject("bucket", "a")));
+        assertEquals("a-content", read(cache.getObject("bucket", "a")));
+
+        verify(client, times(2)).getObject(any(String.class), any(String.class));
+        assertTrue(dataFiles().isEmpty());
+    }
+
+    @Test
+    void onlyAbandonedDirectoriesAreDeleted() throws IOException {
+        Path abandoned = Files.createDirectory(baseDirectory.resolve("opcooc-test-abandoned"));
+        Files.createFile(abandoned.resolve(".lock"));
+        Path unrelated = Files.createDirectory(baseDirectory.resolve("other-data"));
+        S3DiskCache first = new S3DiskCache(client, baseDirectory, "test", properties);
+        try {
+            open();
+
+            assertFalse(Files.exists(abandoned));
+            assertTrue(Files.exists(unrelated));
+            try (Stream<Path> children = Files.list(baseDirectory)) {
+                // 另一个仍在使用的实例目录被保留
+                assertEquals(3, children.count());
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test
+    void closeDeletesOnlyItsOwnDirectory() throws IOException {
+        Path unrelated = Files.createFile(baseDirectory.resolve("keep.txt"));
+        S3DiskCache cache = open();
+        read(cache.getObject("bucket", "a"));
+
+        cache.close();
+        this.cache = null;
+
+        assertTrue(Files.exists(unrelated));
+        try (Stream<Path> children = Files.list(baseDirectory)) {
+            assertArrayEquals(new Object[]{unrelated}, children.toArray());
+        }
+    }
+
+}
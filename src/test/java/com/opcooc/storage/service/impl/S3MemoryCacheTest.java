@@ -0,0 +1,204 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+import com.opcooc.storage.toolkit.StorageChecker;
+
+/**
+ * 堆外内存缓存测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3MemoryCacheTest {
+
+    private static final int SLAB_SIZE = StorageChecker.MEMORY_CACHE_SLAB_SIZE;
+
+    private AmazonS3 client;
+
+    private DriverProperties properties;
+
+    /**
+     * 服务端的对象内容
+     */
+    private final Map<String, byte[]> objects = new HashMap<>();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        client = mock(AmazonS3.class);
+        properties = new DriverProperties();
+        properties.setMemoryCacheMaxSize((long) SLAB_SIZE);
+        properties.setMemoryCacheMaxObjectSize((long) SLAB_SIZE);
+        properties.setCacheRevalidateInterval(Duration.ofHours(1));
+    }
+
+    S3MemoryCache open() {
+        return new S3MemoryCache(client, (bucketName, objectName) -> {
+            loads.incrementAndGet();
+            return object(bucketName, objectName);
+        }, properties);
+    }
+
+    S3Object object(String bucketName, String objectName) {
+        byte[] content = objects.get(objectName);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", "etag-" + objectName);
+        S3Object object = new S3Object();
+        object.setBucketName(bucketName);
+        object.setKey(objectName);
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new ByteArrayInputStream(content));
+        return object;
+    }
+
+    byte[] put(String objectName, int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (objectName.hashCode() + i);
+        }
+        objects.put(objectName, content);
+        return content;
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void hitIsServedFromTheSlot() throws IOException {
+        byte[] content = put("a", 1500);
+        S3MemoryCache cache = open();
+
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void expiredEntryIsRevalidatedWithETag() throws IOException {
+        properties.setCacheRevalidateInterval(Duration.ZERO);
+        byte[] content = put("a", 100);
+        S3MemoryCache cache = open();
+        read(cache.get("bucket", "a"));
+        when(client.getObject(any(GetObjectRequest.class))).thenReturn(null);
+
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+
+        assertEquals(1, loads.get());
+        verify(client, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    void slabIsReclaimedFromAnotherSizeClass() throws IOException {
+        // 唯一的 slab 被 1KB 规格的对象占满
+        for (int i = 0; i < SLAB_SIZE / 1024; i++) {
+            put("small-" + i, 1000);
+        }
+        byte[] large = put("large", 4000);
+        S3MemoryCache cache = open();
+        for (int i = 0; i < SLAB_SIZE / 1024; i++) {
+            read(cache.get("bucket", "small-" + i));
+        }
+
+        read(cache.get("bucket", "large"));
+        assertArrayEquals(large, read(cache.get("bucket", "large")));
+        assertEquals(SLAB_SIZE / 1024 + 1, loads.get());
+
+        // 小对象所在的 slab 已经被整体回收
+        read(cache.get("bucket", "small-0"));
+        assertEquals(SLAB_SIZE / 1024 + 2, loads.get());
+    }
+
+    @Test
+    void pinnedSlotIsNotReusedWhileReading() throws IOException {
+        byte[] first = put("first", SLAB_SIZE);
+        byte[] second = put("second", SLAB_SIZE);
+        S3MemoryCache cache = open();
+        read(cache.get("bucket", "first"));
+        InputStream reader = cache.get("bucket", "first");
+
+        // 唯一的槽位正在被读取, second 不能写入缓存
+        assertArrayEquals(second, read(cache.get("bucket", "second")));
+        assertArrayEquals(first, read(reader));
+        assertEquals(2, loads.get());
+
+        // 读取结束后槽位可以淘汰, second 写入缓存
+        read(cache.get("bucket", "second"));
+        assertArrayEquals(second, read(cache.get("bucket", "second")));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void invalidateDuringFillDoesNotCacheTheStaleData() throws IOException {
+        put("a", 100);
+        S3MemoryCache[] holder = new S3MemoryCache[1];
+        holder[0] = new S3MemoryCache(client, (bucketName, objectName) -> {
+            loads.incrementAndGet();
+            S3Object object = object(bucketName, objectName);
+            holder[0].invalidate(bucketName, objectName);
+            return object;
+        }, properties);
+
+        read(holder[0].get("bucket", "a"));
+        read(holder[0].get("bucket", "a"));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void objectsLargerThanMaxObjectSizeAreNotCached() throws IOException {
+        properties.setMemoryCacheMaxObjectSize(1024L);
+        byte[] content = put("a", 2000);
+        S3MemoryCache cache = open();
+
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void closeReleasesTheSlabsAndStopsCaching() throws IOException {
+        byte[] content = put("a", 1500);
+        S3MemoryCache cache = open();
+        read(cache.get("bucket", "a"));
+        InputStream reader = cache.get("bucket", "a");
+
+        cache.close();
+
+        // 已打开的输入流仍然可以读完
+        assertArrayEquals(content, read(reader));
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+        assertArrayEquals(content, read(cache.get("bucket", "a")));
+        assertEquals(3, loads.get());
+    }
+
+}
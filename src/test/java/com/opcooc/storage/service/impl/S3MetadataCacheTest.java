@@ -0,0 +1,123 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 对象元数据缓存测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3MetadataCacheTest {
+
+    private DriverProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DriverProperties();
+        properties.setMetadataCacheTtl(Duration.ofHours(1));
+        properties.setMetadataCacheMaxSize(2);
+    }
+
+    static ObjectMetadata metadata(String eTag) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setHeader("ETag", eTag);
+        return metadata;
+    }
+
+    /**
+     * 模拟一次完整的 HEAD 请求
+     */
+    static void load(S3MetadataCache cache, String objectName, ObjectMetadata metadata) {
+        long generation = cache.begin("bucket", objectName);
+        try {
+            cache.put("bucket", objectName, metadata, generation);
+        } finally {
+            cache.end("bucket", objectName);
+        }
+    }
+
+    @Test
+    void cachedMetadataIsACopy() {
+        S3MetadataCache cache = new S3MetadataCache(properties);
+        load(cache, "a", metadata("etag-a"));
+
+        S3MetadataCache.Entry entry = cache.lookup("bucket", "a");
+        entry.getMetadata().setHeader("ETag", "modified");
+
+        assertEquals("etag-a", cache.lookup("bucket", "a").getMetadata().getETag());
+    }
+
+    @Test
+    void missingObjectsAreCachedAsNull() {
+        S3MetadataCache cache = new S3MetadataCache(properties);
+        load(cache, "a", null);
+
+        S3MetadataCache.Entry entry = cache.lookup("bucket", "a");
+
+        assertNotNull(entry);
+        assertNull(entry.getMetadata());
+    }
+
+    @Test
+    void zeroTtlStoresNothing() {
+        properties.setMetadataCacheTtl(Duration.ZERO);
+        S3MetadataCache cache = new S3MetadataCache(properties);
+        load(cache, "a", metadata("etag-a"));
+
+        assertNull(cache.lookup("bucket", "a"));
+    }
+
+    @Test
+    void resultOfAHeadThatRacedAWriteIsDropped() {
+        S3MetadataCache cache = new S3MetadataCache(properties);
+        long generation = cache.begin("bucket", "a");
+        // HEAD 请求期间对象被覆盖
+        cache.invalidate("bucket", "a");
+        cache.put("bucket", "a", metadata("etag-old"), generation);
+        cache.end("bucket", "a");
+
+        assertNull(cache.lookup("bucket", "a"));
+        load(cache, "a", metadata("etag-new"));
+        assertEquals("etag-new", cache.lookup("bucket", "a").getMetadata().getETag());
+    }
+
+    @Test
+    void invalidateBucketBumpsTheGenerationOfPendingHeads() {
+        S3MetadataCache cache = new S3MetadataCache(properties);
+        load(cache, "a", metadata("etag-a"));
+        long generation = cache.begin("bucket", "b");
+
+        cache.invalidateBucket("bucket");
+        cache.put("bucket", "b", metadata("etag-b"), generation);
+        cache.end("bucket", "b");
+
+        assertNull(cache.lookup("bucket", "a"));
+        assertNull(cache.lookup("bucket", "b"));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        S3MetadataCache cache = new S3MetadataCache(properties);
+        load(cache, "a", metadata("etag-a"));
+        load(cache, "b", metadata("etag-b"));
+        cache.lookup("bucket", "a");
+
+        load(cache, "c", metadata("etag-c"));
+
+        assertNotNull(cache.lookup("bucket", "a"));
+        assertNull(cache.lookup("bucket", "b"));
+        assertNotNull(cache.lookup("bucket", "c"));
+    }
+
+}
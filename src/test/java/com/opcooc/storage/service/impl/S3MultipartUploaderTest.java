@@ -0,0 +1,503 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.opcooc.storage.args.CopyObjectArgs;
+import com.opcooc.storage.args.ObjectArgs;
+import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 分片上传和服务端分片复制测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3MultipartUploaderTest {
+
+    private static final int PART_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    private AmazonS3 client;
+
+    private DriverProperties properties;
+
+    private ExecutorService executor;
+
+    private S3MultipartUploader uploader;
+
+    /**
+     * 服务端收到的分片内容
+     */
+    private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+
+    /**
+     * 被其他上传覆盖的分片在服务端的ETag
+     */
+    private final Map<Integer, String> replacedETags = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        client = mock(AmazonS3.class);
+        properties = new DriverProperties();
+        properties.setPartSize((long) PART_SIZE);
+        properties.setConcurrency(3);
+        executor = Executors.newFixedThreadPool(3);
+        uploader = new S3MultipartUploader(client, properties, executor);
+
+        InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload-1");
+        when(client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> receive(invocation.getArgument(0)));
+        CompleteMultipartUploadResult completed = new CompleteMultipartUploadResult();
+        completed.setETag("etag-complete");
+        when(client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class))).thenReturn(completed);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    UploadPartResult receive(UploadPartRequest request) {
+        try {
+            byte[] content = request.getInputStream().readAllBytes();
+            assertEquals(request.getPartSize(), content.length);
+            parts.put(request.getPartNumber(), content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag("etag-" + request.getPartNumber());
+        return result;
+    }
+
+    byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    File createFile(byte[] content) throws IOException {
+        Path file = directory.resolve("source.bin");
+        Files.write(file, content);
+        return file.toFile();
+    }
+
+    byte[] assembled() {
+        int length = parts.values().stream().mapToInt(part -> part.length).sum();
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (int i = 1; i <= parts.size(); i++) {
+            byte[] part = parts.get(i);
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    UploadArgs.UploadArgsBuilder<?, ?> args() {
+        return UploadArgs.builder().bucketName("bucket").objectName("object");
+    }
+
+    @Test
+    void uploadFileSplitsIntoPartsAndCompletesInOrder() throws IOException {
+        byte[] content = randomBytes(PART_SIZE * 3 + 100);
+
+        FileBasicInfo info = uploader.uploadFile(args().file(createFile(content)).build());
+
+        assertEquals(4, parts.size());
+        assertArrayEquals(content, assembled());
+        assertEquals(content.length, info.getContentLength());
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(client).completeMultipartUpload(captor.capture());
+        assertEquals(List.of(1, 2, 3, 4), captor.getValue().getPartETags().stream()
+                .map(PartETag::getPartNumber).collect(Collectors.toList()));
+        verify(client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    void uploadFileAbortsWhenAPartFails() throws IOException {
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            if (request.getPartNumber() == 2) {
+                throw new IllegalStateException("part failed");
+            }
+            return receive(request);
+        });
+        File file = createFile(randomBytes(PART_SIZE * 3));
+
+        assertThrows(StorageException.class, () -> uploader.uploadFile(args().file(file).build()));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    /**
+     * 分片1失败, 分片2在失败之后才上传完成; 记录取消分片上传时是否仍有分片在上传
+     */
+    AtomicBoolean abortWhileUploading() {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch failure = new CountDownLatch(1);
+        AtomicInteger uploading = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            uploading.incrementAndGet();
+            try {
+                if (request.getPartNumber() == 1) {
+                    started.await(5, TimeUnit.SECONDS);
+                    failure.countDown();
+                    throw new IllegalStateException("part failed");
+                }
+                if (request.getPartNumber() == 2) {
+                    started.countDown();
+                    failure.await(5, TimeUnit.SECONDS);
+                    Thread.sleep(200);
+                }
+                return receive(request);
+            } finally {
+                uploading.decrementAndGet();
+            }
+        });
+        doAnswer(invocation -> {
+            overlapped.set(uploading.get() > 0);
+            return null;
+        }).when(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        return overlapped;
+    }
+
+    @Test
+    void uploadFileWaitsForInFlightPartsBeforeAbort() throws IOException {
+        AtomicBoolean overlapped = abortWhileUploading();
+        File file = createFile(randomBytes(PART_SIZE * 3));
+
+        assertThrows(StorageException.class, () -> uploader.uploadFile(args().file(file).build()));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        assertTrue(parts.containsKey(2));
+        assertFalse(overlapped.get());
+    }
+
+    @Test
+    void uploadStreamWaitsForInFlightPartsBeforeAbort() {
+        AtomicBoolean overlapped = abortWhileUploading();
+        ByteArrayInputStream stream = new ByteArrayInputStream(randomBytes(PART_SIZE * 3));
+
+        assertThrows(StorageException.class, () -> uploader.uploadStream(args().stream(stream).build()));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        assertTrue(parts.containsKey(2));
+        assertFalse(overlapped.get());
+    }
+
+    @Test
+    void uploadStreamReusesABoundedSetOfBuffers() throws IOException {
+        byte[] content = randomBytes(PART_SIZE * 10 + 1);
+        AtomicLong read = new AtomicLong();
+        AtomicLong uploaded = new AtomicLong();
+        AtomicLong maxAhead = new AtomicLong();
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            maxAhead.accumulateAndGet(read.get() - uploaded.get(), Math::max);
+            Thread.sleep(10);
+            UploadPartResult result = receive(request);
+            uploaded.addAndGet(request.getPartSize());
+            return result;
+        });
+        FilterInputStream stream = new FilterInputStream(new ByteArrayInputStream(content)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    read.addAndGet(n);
+                }
+                return n;
+            }
+        };
+
+        uploader.uploadStream(args().stream(stream).build());
+
+        assertEquals(11, parts.size());
+        assertArrayEquals(content, assembled());
+        // 已读取但未上传完成的数据不超过 concurrency 个分片
+        assertTrue(maxAhead.get() <= (long) properties.getConcurrency() * PART_SIZE, "read ahead " + maxAhead.get());
+    }
+
+    @Test
+    void uploadStreamShorterThanAPartUsesPutObject() {
+        byte[] content = randomBytes(PART_SIZE - 1);
+        PutObjectResult put = new PutObjectResult();
+        put.setMetadata(new ObjectMetadata());
+        when(client.putObject(any(String.class), any(String.class), any(InputStream.class), any(ObjectMetadata.class))).thenReturn(put);
+
+        FileBasicInfo info = uploader.uploadStream(args().stream(new ByteArrayInputStream(content)).build());
+
+        assertEquals(content.length, info.getContentLength());
+        verify(client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void uploadStreamAbortsWhenAPartFails() {
+        when(client.uploadPart(any(UploadPartRequest.class))).thenThrow(new IllegalStateException("part failed"));
+        ByteArrayInputStream stream = new ByteArrayInputStream(randomBytes(PART_SIZE * 20));
+
+        assertThrows(StorageException.class, () -> uploader.uploadStream(args().stream(stream).build()));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        // 分片失败后停止读取
+        assertTrue(stream.available() > 0);
+    }
+
+    /**
+     * 服务端已有的分片列表
+     */
+    PartListing listing() {
+        List<PartSummary> summaries = new ArrayList<>();
+        parts.forEach((partNumber, content) -> {
+            PartSummary summary = new PartSummary();
+            summary.setPartNumber(partNumber);
+            summary.setSize(content.length);
+            summary.setETag(replacedETags.getOrDefault(partNumber, "etag-" + partNumber));
+            summaries.add(summary);
+        });
+        PartListing listing = new PartListing();
+        listing.setParts(summaries);
+        return listing;
+    }
+
+    @Test
+    void resumableUploadKeepsTheUploadAndOnlySendsMissingParts() throws IOException {
+        properties.setCheckpointDir(directory.resolve("checkpoint").toString());
+        byte[] content = randomBytes(PART_SIZE * 4);
+        File file = createFile(content);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            attempts.incrementAndGet();
+            if (request.getPartNumber() == 3 && failed.compareAndSet(false, true)) {
+                throw new IllegalStateException("part failed");
+            }
+            return receive(request);
+        });
+        when(client.listParts(any(ListPartsRequest.class))).thenAnswer(invocation -> listing());
+        UploadArgs args = args().file(file).resumable(true).build();
+
+        assertThrows(StorageException.class, () -> uploader.uploadFile(args));
+        verify(client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        int missing = 4 - parts.size();
+        int firstAttempt = attempts.get();
+
+        uploader.uploadFile(args);
+
+        verify(client, times(1)).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertEquals(missing, attempts.get() - firstAttempt);
+        assertArrayEquals(content, assembled());
+        // 完成后删除断点记录
+        try (Stream<Path> files = Files.list(directory.resolve("checkpoint"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void resumableUploadSendsPartsThatDoNotMatchTheCheckpointAgain() throws IOException {
+        properties.setCheckpointDir(directory.resolve("checkpoint").toString());
+        byte[] content = randomBytes(PART_SIZE * 3);
+        File file = createFile(content);
+        List<Integer> sent = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        CountDownLatch othersUploaded = new CountDownLatch(2);
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            synchronized (sent) {
+                sent.add(request.getPartNumber());
+            }
+            if (request.getPartNumber() == 3 && failed.compareAndSet(false, true)) {
+                othersUploaded.await(5, TimeUnit.SECONDS);
+                throw new IllegalStateException("part failed");
+            }
+            UploadPartResult result = receive(request);
+            replacedETags.remove(request.getPartNumber());
+            othersUploaded.countDown();
+            return result;
+        });
+        when(client.listParts(any(ListPartsRequest.class))).thenAnswer(invocation -> listing());
+        UploadArgs args = args().file(file).resumable(true).build();
+        assertThrows(StorageException.class, () -> uploader.uploadFile(args));
+        assertEquals(Set.of(1, 2), parts.keySet());
+        // 分片1在服务端被其他上传覆盖
+        replacedETags.put(1, "etag-other");
+        sent.clear();
+
+        uploader.uploadFile(args);
+
+        sent.sort(null);
+        assertEquals(List.of(1, 3), sent);
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(client).completeMultipartUpload(captor.capture());
+        assertEquals(List.of("etag-1", "etag-2", "etag-3"), captor.getValue().getPartETags().stream()
+                .map(PartETag::getETag).collect(Collectors.toList()));
+    }
+
+    @Test
+    void resumableUploadRestartsWhenTheFileChanged() throws IOException {
+        properties.setCheckpointDir(directory.resolve("checkpoint").toString());
+        File file = createFile(randomBytes(PART_SIZE * 2));
+        when(client.uploadPart(any(UploadPartRequest.class))).thenThrow(new IllegalStateException("part failed"));
+        UploadArgs args = args().file(file).resumable(true).build();
+        assertThrows(StorageException.class, () -> uploader.uploadFile(args));
+
+        when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> receive(invocation.getArgument(0)));
+        when(client.listParts(any(ListPartsRequest.class))).thenReturn(new PartListing());
+        byte[] changed = randomBytes(PART_SIZE * 3);
+        createFile(changed);
+
+        uploader.uploadFile(args);
+
+        // 旧的分片上传被取消, 重新开始
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, times(2)).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        assertArrayEquals(changed, assembled());
+    }
+
+    CopyObjectArgs copyArgs() {
+        return CopyObjectArgs.builder().bucketName("target-bucket").objectName("target")
+                .source(ObjectArgs.builder().bucketName("source-bucket").objectName("source").build()).build();
+    }
+
+    ObjectMetadata sourceMetadata(long contentLength) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(contentLength);
+        metadata.setHeader("ETag", "etag-source");
+        metadata.setContentType("text/plain");
+        metadata.setCacheControl("no-cache");
+        metadata.addUserMetadata("owner", "a");
+        return metadata;
+    }
+
+    static CopyPartResult copied(CopyPartRequest request) {
+        CopyPartResult result = new CopyPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag("etag-" + request.getPartNumber());
+        return result;
+    }
+
+    @Test
+    void copyObjectCopiesEveryRangeOfTheUnchangedSource() {
+        properties.setCopyPartSize(1000L);
+        List<CopyPartRequest> requests = new ArrayList<>();
+        when(client.copyPart(any(CopyPartRequest.class))).thenAnswer(invocation -> {
+            CopyPartRequest request = invocation.getArgument(0);
+            synchronized (requests) {
+                requests.add(request);
+            }
+            return copied(request);
+        });
+
+        uploader.copyObject(copyArgs(), sourceMetadata(2500));
+
+        requests.sort(Comparator.comparingInt(CopyPartRequest::getPartNumber));
+        assertEquals(List.of(0L, 1000L, 2000L), requests.stream().map(CopyPartRequest::getFirstByte).collect(Collectors.toList()));
+        assertEquals(List.of(999L, 1999L, 2499L), requests.stream().map(CopyPartRequest::getLastByte).collect(Collectors.toList()));
+        for (CopyPartRequest request : requests) {
+            assertEquals(List.of("etag-source"), request.getMatchingETagConstraints());
+            assertEquals("source-bucket", request.getSourceBucketName());
+            assertEquals("source", request.getSourceKey());
+            assertEquals("target", request.getDestinationKey());
+        }
+        // 目标对象保留源对象的元数据
+        ArgumentCaptor<InitiateMultipartUploadRequest> initiated = ArgumentCaptor.forClass(InitiateMultipartUploadRequest.class);
+        verify(client).initiateMultipartUpload(initiated.capture());
+        ObjectMetadata metadata = initiated.getValue().getObjectMetadata();
+        assertEquals("text/plain", metadata.getContentType());
+        assertEquals("no-cache", metadata.getCacheControl());
+        assertEquals("a", metadata.getUserMetaDataOf("owner"));
+        ArgumentCaptor<CompleteMultipartUploadRequest> completed = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(client).completeMultipartUpload(completed.capture());
+        assertEquals(List.of(1, 2, 3), completed.getValue().getPartETags().stream()
+                .map(PartETag::getPartNumber).collect(Collectors.toList()));
+        verify(client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    void copyObjectAbortsWhenTheSourceChanges() {
+        properties.setCopyPartSize(1000L);
+        // ETag 条件不满足时 SDK 返回 null
+        when(client.copyPart(any(CopyPartRequest.class))).thenAnswer(invocation -> {
+            CopyPartRequest request = invocation.getArgument(0);
+            return request.getPartNumber() == 2 ? null : copied(request);
+        });
+
+        assertThrows(StorageException.class, () -> uploader.copyObject(copyArgs(), sourceMetadata(2500)));
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+}
@@ -0,0 +1,636 @@
+package com.opcooc.storage.service.impl;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.opcooc.storage.args.BucketArgs;
+import com.opcooc.storage.args.DownloadObjectsArgs;
+import com.opcooc.storage.args.ListObjectArgs;
+import com.opcooc.storage.args.RangeObjectArgs;
+import com.opcooc.storage.args.UploadArgs;
+import com.opcooc.storage.args.UploadDirectoryArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.io.RangeInputStream;
+import com.opcooc.storage.model.BatchReport;
+import com.opcooc.storage.model.BatchResult;
+import com.opcooc.storage.model.FileBasicInfo;
+import com.opcooc.storage.model.ObjectListPage;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 对象读取和批量操作测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3NFSServiceTest {
+
+    private AmazonS3 client;
+
+    private DriverProperties properties;
+
+    private S3NFSService service;
+
+    @TempDir
+    Path directory;
+
+    private final byte[] content = new byte[1000];
+
+    /**
+     * 服务端是否支持自定义 Range 请求头中的后缀范围
+     */
+    private boolean suffixSupported = true;
+
+    /**
+     * 服务端是否忽略 Range 返回完整对象
+     */
+    private boolean rangeIgnored;
+
+    /**
+     * 返回的对象, 用于检查连接是否断开
+     */
+    private final List<S3Object> responses = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        new Random(1).nextBytes(content);
+        client = mock(AmazonS3.class);
+        properties = new DriverProperties();
+        service = new S3NFSService("test", properties, client);
+        when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> respond(invocation.getArgument(0)));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        service.close();
+    }
+
+    /**
+     * 修改 properties 后按新的配置重新创建服务
+     */
+    void restart() throws IOException {
+        service.close();
+        service = new S3NFSService("test", properties, client);
+    }
+
+    S3Object respond(GetObjectRequest request) {
+        long start = 0;
+        long end = content.length - 1;
+        String header = request.getCustomRequestHeaders() == null ? null : request.getCustomRequestHeaders().get(Headers.RANGE);
+        if (header != null && suffixSupported) {
+            start = Math.max(0, content.length - Long.parseLong(header.substring("bytes=-".length())));
+        } else if (request.getRange() != null) {
+            start = request.getRange()[0];
+            end = request.getRange().length > 1 ? Math.min(request.getRange()[1], end) : end;
+        }
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setHeader(Headers.ETAG, "etag-1");
+        if (rangeIgnored) {
+            start = 0;
+            end = content.length - 1;
+        } else {
+            metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+        }
+        metadata.setContentLength(end - start + 1);
+        S3Object object = new S3Object();
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(Arrays.copyOfRange(content, (int) start, (int) end + 1)), new HttpGet()));
+        responses.add(object);
+        return object;
+    }
+
+    RangeObjectArgs.RangeObjectArgsBuilder<?, ?> range() {
+        return RangeObjectArgs.builder().bucketName("bucket").objectName("object");
+    }
+
+    File file(String name, String text) throws IOException {
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, text.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    static PutObjectResult putResult(String eTag) {
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(eTag);
+        result.setMetadata(new ObjectMetadata());
+        return result;
+    }
+
+    UploadArgs upload(String objectName) throws IOException {
+        return UploadArgs.builder().bucketName("bucket").objectName(objectName).file(file(objectName, objectName)).build();
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void boundedRange() throws IOException {
+        RangeInputStream in = service.getObjectRange(range().offset(100L).length(50L).build());
+
+        assertEquals(100, in.getRangeStart());
+        assertEquals(149, in.getRangeEnd());
+        assertEquals(content.length, in.getInstanceLength());
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 150), read(in));
+    }
+
+    @Test
+    void boundedRangeIsClampedToTheObject() throws IOException {
+        RangeInputStream in = service.getObjectRange(range().offset(990L).length(50L).build());
+
+        assertEquals(999, in.getRangeEnd());
+        assertArrayEquals(Arrays.copyOfRange(content, 990, 1000), read(in));
+    }
+
+    @Test
+    void openEndedRange() throws IOException {
+        RangeInputStream in = service.getObjectRange(range().offset(900L).build());
+
+        assertEquals(900, in.getRangeStart());
+        assertEquals(999, in.getRangeEnd());
+        assertArrayEquals(Arrays.copyOfRange(content, 900, 1000), read(in));
+    }
+
+    @Test
+    void suffixRange() throws IOException {
+        RangeInputStream in = service.getObjectRange(range().suffixLength(30L).build());
+
+        assertEquals(970, in.getRangeStart());
+        assertArrayEquals(Arrays.copyOfRange(content, 970, 1000), read(in));
+        verify(client, times(1)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    void suffixLongerThanTheObjectReturnsTheWholeObject() throws IOException {
+        RangeInputStream in = service.getObjectRange(range().suffixLength(5000L).build());
+
+        assertEquals(0, in.getRangeStart());
+        assertArrayEquals(content, read(in));
+    }
+
+    @Test
+    void suffixFallsBackToAnExplicitRangeWhenTheHeaderIsDropped() throws IOException {
+        suffixSupported = false;
+
+        RangeInputStream in = service.getObjectRange(range().suffixLength(30L).build());
+
+        assertEquals(970, in.getRangeStart());
+        assertArrayEquals(Arrays.copyOfRange(content, 970, 1000), read(in));
+        assertTrue(responses.get(0).getObjectContent().getHttpRequest().isAborted());
+        verify(client, times(2)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    void ignoredRangeIsRejected() {
+        rangeIgnored = true;
+
+        assertThrows(StorageException.class, () -> service.getObjectRange(range().offset(100L).length(50L).build()));
+
+        assertTrue(responses.get(0).getObjectContent().getHttpRequest().isAborted());
+    }
+
+    @Test
+    void uploadObjectsReportsEachFailureAgainstItsItem() throws IOException {
+        when(client.putObject(eq("bucket"), any(String.class), any(File.class))).thenAnswer(invocation -> {
+            String objectName = invocation.getArgument(1);
+            if ("b.txt".equals(objectName)) {
+                throw new AmazonS3Exception("slow down");
+            }
+            return putResult("etag-" + objectName);
+        });
+        when(client.putObject(eq("bucket"), eq("d.txt"), any(InputStream.class), any(ObjectMetadata.class))).thenReturn(putResult("etag-d.txt"));
+        UploadArgs stream = UploadArgs.builder().bucketName("bucket").objectName("d.txt")
+                .stream(new ByteArrayInputStream(new byte[10])).objectSize(10).build();
+
+        List<BatchResult<FileBasicInfo>> results = service.uploadObjects(Arrays.asList(upload("a.txt"), upload("b.txt"), upload("c.txt"), stream));
+
+        assertEquals(Arrays.asList("a.txt", "b.txt", "c.txt", "d.txt"), results.stream().map(BatchResult::getObjectName).collect(toList()));
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("etag-a.txt", results.get(0).getResult().getETag());
+        assertFalse(results.get(1).isSuccess());
+        assertNull(results.get(1).getResult());
+        assertTrue(results.get(1).getError().getMessage().contains("slow down"));
+        assertEquals("etag-c.txt", results.get(2).getResult().getETag());
+        assertEquals("etag-d.txt", results.get(3).getResult().getETag());
+    }
+
+    @Test
+    void uploadObjectsRunAtMostBatchConcurrencyAtOnce() throws IOException {
+        properties.setBatchConcurrency(2);
+        restart();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(client.putObject(eq("bucket"), any(String.class), any(File.class))).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return putResult("etag");
+        });
+        List<UploadArgs> uploads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            uploads.add(upload(i + ".txt"));
+        }
+
+        List<BatchResult<FileBasicInfo>> results = service.uploadObjects(uploads);
+
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+        assertEquals(2, maxRunning.get());
+    }
+
+    /**
+     * 记录上传的对象名称
+     */
+    List<String> recordUploads() {
+        List<String> objectNames = Collections.synchronizedList(new ArrayList<>());
+        when(client.putObject(eq("bucket"), any(String.class), any(File.class))).thenAnswer(invocation -> {
+            objectNames.add(invocation.getArgument(1));
+            return putResult("etag");
+        });
+        return objectNames;
+    }
+
+    static S3ObjectSummary summary(String key, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setKey(key);
+        summary.setSize(bytes.length);
+        summary.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(bytes)));
+        return summary;
+    }
+
+    @Test
+    void uploadDirectoryMapsRelativePathsToKeys() throws IOException {
+        file("tree/a.txt", "a");
+        file("tree/sub/b.txt", "b");
+        file("tree/sub/deep/c.txt", "c");
+        List<String> uploaded = recordUploads();
+
+        List<BatchResult<FileBasicInfo>> results = service.uploadDirectory(UploadDirectoryArgs.builder().bucketName("bucket")
+                .objectName("backup/").directory(directory.resolve("tree")).skipUnchanged(false).build());
+
+        List<String> expected = Arrays.asList("backup/a.txt", "backup/sub/b.txt", "backup/sub/deep/c.txt");
+        assertEquals(expected, results.stream().map(BatchResult::getObjectName).collect(toList()));
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+        assertEquals(expected, uploaded.stream().sorted().collect(toList()));
+    }
+
+    @Test
+    void uploadDirectoryAppliesTheObjectConverter() throws IOException {
+        file("tree/a.txt", "a");
+        file("tree/sub/b.txt", "b");
+        List<String> uploaded = recordUploads();
+
+        service.uploadDirectory(UploadDirectoryArgs.builder().bucketName("bucket").directory(directory.resolve("tree"))
+                .skipUnchanged(false).objectConverter((config, object) -> "converted/" + object.getObjectName()).build());
+
+        assertEquals(Arrays.asList("converted/a.txt", "converted/sub/b.txt"), uploaded.stream().sorted().collect(toList()));
+    }
+
+    @Test
+    void uploadDirectorySkipsFilesThatMatchTheListing() throws IOException {
+        file("tree/same.txt", "same");
+        file("tree/changed.txt", "local");
+        file("tree/resized.txt", "local");
+        file("tree/new.txt", "new");
+        List<String> uploaded = recordUploads();
+        List<ListObjectsV2Request> listings = new ArrayList<>();
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            listings.add(invocation.getArgument(0));
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            result.getObjectSummaries().add(summary("p/changed.txt", "other"));
+            result.getObjectSummaries().add(summary("p/resized.txt", "longer"));
+            result.getObjectSummaries().add(summary("p/same.txt", "same"));
+            return result;
+        });
+
+        List<BatchResult<FileBasicInfo>> results = service.uploadDirectory(UploadDirectoryArgs.builder().bucketName("bucket")
+                .objectName("p/").directory(directory.resolve("tree")).build());
+
+        assertEquals(Arrays.asList("p/changed.txt", "p/new.txt", "p/resized.txt", "p/same.txt"),
+                results.stream().map(BatchResult::getObjectName).collect(toList()));
+        assertEquals(Arrays.asList(false, false, false, true), results.stream().map(BatchResult::isSkipped).collect(toList()));
+        assertEquals(Arrays.asList("p/changed.txt", "p/new.txt", "p/resized.txt"), uploaded.stream().sorted().collect(toList()));
+        // 一次列举覆盖所有文件
+        assertEquals(1, listings.size());
+        assertEquals("p/", listings.get(0).getPrefix());
+    }
+
+    /**
+     * 按对象名称返回内容为对象名称的范围响应, 名称包含 fail 的对象返回服务端错误
+     */
+    void serveObjectNames() {
+        doAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            if (request.getKey().contains("fail")) {
+                throw new AmazonS3Exception("internal error");
+            }
+            byte[] bytes = request.getKey().getBytes(StandardCharsets.UTF_8);
+            long end = Math.min(request.getRange()[1], bytes.length - 1);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setHeader(Headers.ETAG, "etag");
+            metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + request.getRange()[0] + "-" + end + "/" + bytes.length);
+            metadata.setContentLength(end - request.getRange()[0] + 1);
+            S3Object object = new S3Object();
+            object.setObjectMetadata(metadata);
+            object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(bytes, (int) request.getRange()[0], (int) metadata.getContentLength()), new HttpGet()));
+            return object;
+        }).when(client).getObject(any(GetObjectRequest.class));
+    }
+
+    /**
+     * 按 S3 规则列举给定的对象, maxKeys 为 null 时使用请求中的 maxKeys
+     *
+     * @return 每次列举请求的 continuationToken
+     */
+    List<String> serveListing(Integer maxKeys, String... keys) {
+        ListObjectsStub stub = new ListObjectsStub(Arrays.asList(keys));
+        List<String> listings = Collections.synchronizedList(new ArrayList<>());
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            listings.add(request.getContinuationToken());
+            return stub.list(maxKeys == null ? request : request.withMaxKeys(maxKeys));
+        });
+        return listings;
+    }
+
+    @Test
+    void downloadObjectsFollowsEveryPageAndAggregatesFailures() throws IOException {
+        serveObjectNames();
+        List<String> listings = serveListing(2, "data/a", "data/dir/", "data/fail", "data/sub/c", "other/x");
+        Path out = directory.resolve("out");
+
+        BatchReport<File> report = service.downloadObjects(DownloadObjectsArgs.builder().bucketName("bucket")
+                .objectName("data/").directory(out).build());
+
+        assertEquals(Arrays.asList("data/a", "data/fail", "data/sub/c"),
+                report.getResults().stream().map(BatchResult::getObjectName).collect(toList()));
+        assertEquals(1, report.getFailureCount());
+        assertEquals(0, report.getSkippedCount());
+        assertTrue(report.getResults().get(1).getError().getMessage().contains("internal error"));
+        assertEquals("data/a".length() + "data/sub/c".length(), report.getBytes());
+        assertEquals("data/a", new String(Files.readAllBytes(out.resolve("a")), StandardCharsets.UTF_8));
+        assertEquals("data/sub/c", new String(Files.readAllBytes(out.resolve("sub/c")), StandardCharsets.UTF_8));
+        assertFalse(Files.exists(out.resolve("fail")));
+        assertFalse(Files.exists(out.resolve("dir")));
+        // 每一页都通过上一页的 continuationToken 获取
+        assertEquals(2, listings.size());
+        assertEquals(Arrays.asList(null, "data/dir/"), listings);
+    }
+
+    @Test
+    void downloadObjectsSkipsLocalFilesThatMatchTheObject() throws IOException {
+        serveObjectNames();
+        file("out/same", "same");
+        file("out/changed", "local");
+        for (String objectName : Arrays.asList("same", "changed")) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(objectName.length());
+            metadata.setHeader(Headers.ETAG, BinaryUtils.toHex(Md5Utils.computeMD5Hash(objectName.getBytes(StandardCharsets.UTF_8))));
+            when(client.getObjectMetadata("bucket", objectName)).thenReturn(metadata);
+        }
+
+        BatchReport<File> report = service.downloadObjects(DownloadObjectsArgs.builder().bucketName("bucket")
+                .objectNames(Arrays.asList("same", "changed", "new")).directory(directory.resolve("out")).build());
+
+        assertEquals(Arrays.asList(true, false, false), report.getResults().stream().map(BatchResult::isSkipped).collect(toList()));
+        assertEquals(0, report.getFailureCount());
+        assertEquals("changed".length() + "new".length(), report.getBytes());
+        assertEquals("changed", new String(Files.readAllBytes(directory.resolve("out/changed")), StandardCharsets.UTF_8));
+        assertEquals("new", new String(Files.readAllBytes(directory.resolve("out/new")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void downloadObjectsPausesListingWhileDownloadsAreBehind() throws Exception {
+        properties.setBatchConcurrency(1);
+        restart();
+        String[] keys = new String[10];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key-" + i;
+        }
+        List<String> listings = serveListing(1, keys);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            GetObjectRequest request = invocation.getArgument(0);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setHeader(Headers.CONTENT_RANGE, "bytes 0-0/1");
+            metadata.setContentLength(1);
+            S3Object object = new S3Object();
+            object.setKey(request.getKey());
+            object.setObjectMetadata(metadata);
+            object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(new byte[1]), new HttpGet()));
+            return object;
+        }).when(client).getObject(any(GetObjectRequest.class));
+
+        CompletableFuture<BatchReport<File>> report = CompletableFuture.supplyAsync(() -> service.downloadObjects(
+                DownloadObjectsArgs.builder().bucketName("bucket").objectName("key-").directory(directory.resolve("out")).build()));
+
+        // 1 个下载线程, 最多 2 个已提交未完成的任务, 第 3 页的对象等待许可
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listings.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(3, listings.size());
+        assertFalse(report.isDone());
+
+        release.countDown();
+        assertEquals(keys.length, report.get(5, TimeUnit.SECONDS).getResults().size());
+        assertEquals(0, report.get().getFailureCount());
+        assertEquals(keys.length, listings.size());
+    }
+
+    boolean bucketExists(String bucketName) {
+        return service.doesBucketExist(BucketArgs.builder().bucketName(bucketName).build());
+    }
+
+    @Test
+    void bucketExistenceIsCachedUntilTheTtlExpires() throws Exception {
+        properties.setBucketCacheTtl(Duration.ofMillis(300));
+        restart();
+        when(client.doesBucketExistV2("bucket")).thenReturn(true);
+
+        assertTrue(bucketExists("bucket"));
+        assertTrue(bucketExists("bucket"));
+        verify(client, times(1)).doesBucketExistV2("bucket");
+
+        Thread.sleep(400);
+        assertTrue(bucketExists("bucket"));
+        verify(client, times(2)).doesBucketExistV2("bucket");
+    }
+
+    @Test
+    void bucketExistenceIsNotCachedByDefault() {
+        when(client.doesBucketExistV2("bucket")).thenReturn(true);
+
+        assertTrue(bucketExists("bucket"));
+        assertTrue(bucketExists("bucket"));
+
+        verify(client, times(2)).doesBucketExistV2("bucket");
+    }
+
+    @Test
+    void missingBucketsAndUncachedChecksAlwaysReachTheServer() throws IOException {
+        properties.setBucketCacheTtl(Duration.ofMinutes(1));
+        restart();
+        when(client.doesBucketExistV2("missing")).thenReturn(false);
+        when(client.doesBucketExistV2("bucket")).thenReturn(true, false);
+
+        assertFalse(bucketExists("missing"));
+        assertFalse(bucketExists("missing"));
+        verify(client, times(2)).doesBucketExistV2("missing");
+
+        assertTrue(bucketExists("bucket"));
+        // 不使用缓存的检查得到不存在时同时清除缓存
+        assertFalse(service.doesBucketExist(BucketArgs.builder().bucketName("bucket").useCache(false).build()));
+        assertFalse(bucketExists("bucket"));
+        verify(client, times(3)).doesBucketExistV2("bucket");
+    }
+
+    @Test
+    void createBucketFillsTheCacheAndDeleteBucketClearsIt() throws IOException {
+        properties.setBucketCacheTtl(Duration.ofMinutes(1));
+        restart();
+        when(client.createBucket("bucket")).thenReturn(new Bucket("bucket"));
+        when(client.listObjects("bucket")).thenReturn(new ObjectListing());
+        when(client.doesBucketExistV2("bucket")).thenReturn(false);
+
+        service.createBucket(BucketArgs.builder().bucketName("bucket").build());
+        assertTrue(bucketExists("bucket"));
+        verify(client, never()).doesBucketExistV2("bucket");
+
+        service.deleteBucket(BucketArgs.builder().bucketName("bucket").build());
+        assertFalse(bucketExists("bucket"));
+        verify(client, times(1)).doesBucketExistV2("bucket");
+    }
+
+    @Test
+    void leastRecentlyUsedBucketIsEvictedWhenTheCacheIsFull() throws IOException {
+        properties.setBucketCacheTtl(Duration.ofMinutes(1));
+        restart();
+        when(client.doesBucketExistV2(any(String.class))).thenReturn(true);
+
+        bucketExists("bucket-0");
+        bucketExists("bucket-1");
+        for (int i = 2; i < 10000; i++) {
+            bucketExists("bucket-" + i);
+        }
+        // 访问 bucket-0 后 bucket-1 成为最近最少使用的记录
+        bucketExists("bucket-0");
+        bucketExists("bucket-10000");
+
+        bucketExists("bucket-0");
+        bucketExists("bucket-1");
+        verify(client, times(1)).doesBucketExistV2("bucket-0");
+        verify(client, times(2)).doesBucketExistV2("bucket-1");
+    }
+
+    ListObjectArgs.ListObjectArgsBuilder<?, ?> list() {
+        return ListObjectArgs.builder().bucketName("bucket").objectName("p/").maxKeys(2);
+    }
+
+    static List<String> keys(ObjectListPage page) {
+        return page.getObjects().stream().map(FileBasicInfo::getKey).collect(toList());
+    }
+
+    @Test
+    void listObjectsPageReturnsOnePageAndItsContinuationToken() {
+        List<String> listings = serveListing(null, "p/1", "p/2", "p/3", "p/4", "p/5", "q/1");
+
+        ObjectListPage first = service.listObjectsPage(list().build());
+        ObjectListPage second = service.listObjectsPage(list().continuationToken(first.getNextContinuationToken()).build());
+        ObjectListPage last = service.listObjectsPage(list().continuationToken(second.getNextContinuationToken()).build());
+
+        assertEquals(Arrays.asList("p/1", "p/2"), keys(first));
+        assertTrue(first.isTruncated());
+        assertEquals(Arrays.asList("p/3", "p/4"), keys(second));
+        assertEquals(Arrays.asList("p/5"), keys(last));
+        assertFalse(last.isTruncated());
+        assertNull(last.getNextContinuationToken());
+        assertEquals("bucket", last.getObjects().get(0).getBucketName());
+        // 每次调用只发送一次列举请求
+        assertEquals(Arrays.asList(null, first.getNextContinuationToken(), second.getNextContinuationToken()), listings);
+    }
+
+    @Test
+    void listObjectsPageStartsAfterTheGivenKey() {
+        serveListing(null, "p/1", "p/2", "p/3", "p/4", "p/5");
+
+        ObjectListPage page = service.listObjectsPage(list().startAfter("p/2").build());
+
+        assertEquals(Arrays.asList("p/3", "p/4"), keys(page));
+        assertTrue(page.isTruncated());
+        assertEquals(Arrays.asList("p/5"), keys(service.listObjectsPage(list().startAfter("p/2")
+                .continuationToken(page.getNextContinuationToken()).build())));
+    }
+
+    @Test
+    void listFolderPagesThroughObjectsAndCommonPrefixes() {
+        serveListing(null, "p/a", "p/b/1", "p/b/2", "p/c/1", "p/d");
+
+        ObjectListPage first = service.listFolder(list().build());
+        ObjectListPage second = service.listFolder(list().continuationToken(first.getNextContinuationToken()).build());
+
+        assertEquals(Arrays.asList("p/a"), keys(first));
+        assertEquals(Arrays.asList("p/b/"), first.getCommonPrefixes());
+        assertTrue(first.isTruncated());
+        assertEquals(Arrays.asList("p/d"), keys(second));
+        assertEquals(Arrays.asList("p/c/"), second.getCommonPrefixes());
+        assertFalse(second.isTruncated());
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.opcooc.storage.args.ListObjectArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.model.FileBasicInfo;
+
+/**
+ * 按需列举迭代器测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3ObjectIteratorTest {
+
+    private AmazonS3 client;
+
+    private ExecutorService executor;
+
+    private final List<String> keys = IntStream.range(0, 25).mapToObj(i -> String.format("key-%02d", i)).collect(Collectors.toList());
+
+    private final ListObjectsStub stub = new ListObjectsStub(keys);
+
+    private final ListObjectArgs args = ListObjectArgs.builder().bucketName("bucket").maxKeys(10).build();
+
+    /**
+     * 发送请求的线程
+     */
+    private final List<String> threads = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        client = mock(AmazonS3.class);
+        executor = Executors.newFixedThreadPool(2, runnable -> new Thread(runnable, "list-pool"));
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            synchronized (threads) {
+                threads.add(Thread.currentThread().getName());
+            }
+            return stub.list(invocation.getArgument(0));
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    S3ObjectIterator iterator() {
+        return new S3ObjectIterator(client, executor, args, token -> new ListObjectsV2Request()
+                .withBucketName("bucket")
+                .withMaxKeys(args.getMaxKeys())
+                .withContinuationToken(token));
+    }
+
+    static List<String> drain(S3ObjectIterator iterator) {
+        List<String> result = new ArrayList<>();
+        iterator.forEachRemaining(info -> result.add(info.getKey()));
+        return result;
+    }
+
+    @Test
+    void iteratesAllPagesAndFetchesTheFirstOnTheCaller() {
+        S3ObjectIterator iterator = iterator();
+
+        assertEquals(keys, drain(iterator));
+
+        assertEquals(3, threads.size());
+        assertEquals(Thread.currentThread().getName(), threads.get(0));
+        assertEquals(List.of("list-pool", "list-pool"), threads.subList(1, 3));
+    }
+
+    @Test
+    void noRequestIsSentUntilTheFirstHasNext() {
+        S3ObjectIterator iterator = iterator();
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+        assertTrue(threads.isEmpty());
+    }
+
+    @Test
+    void closeDoesNotWaitForAConsumerBlockedOnTheNextPage() throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            if (request.getContinuationToken() != null) {
+                requested.countDown();
+                // 第二页一直不返回, 直到被取消
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return stub.list(request);
+        });
+        S3ObjectIterator iterator = iterator();
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> hasNext = consumer.submit(iterator::hasNext);
+            assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            iterator.close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+            assertFalse(hasNext.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            consumer.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedPageIsWrappedInStorageException() {
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            if (request.getContinuationToken() != null) {
+                throw new AmazonS3Exception("access denied");
+            }
+            return stub.list(request);
+        });
+        S3ObjectIterator iterator = iterator();
+        for (int i = 0; i < 10; i++) {
+            FileBasicInfo info = iterator.next();
+            assertEquals(keys.get(i), info.getKey());
+        }
+
+        assertThrows(StorageException.class, iterator::hasNext);
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.opcooc.storage.args.ListObjectArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.toolkit.StorageUtils;
+
+/**
+ * 并行分区列举迭代器测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3PartitionedIteratorTest {
+
+    /**
+     * 包含公共前缀之间的直属对象, 以及 UTF-16 与 UTF-8 顺序不同的字符(U+FF5E 和 U+1F600)
+     */
+    private static final List<String> KEYS = List.of("a/1", "a/2", "a/\uFF5E", "a/\uD83D\uDE00", "b", "b/1", "b/2", "c",
+            "d/x", "d/y", "e", "f");
+
+    private AmazonS3 client;
+
+    private ExecutorService executor;
+
+    private final ListObjectsStub stub = new ListObjectsStub(KEYS);
+
+    @BeforeEach
+    void setUp() {
+        client = mock(AmazonS3.class);
+        executor = Executors.newFixedThreadPool(4);
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> stub.list(invocation.getArgument(0)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 与 prefixPartitions 相同的划分: 每个公共前缀一个分区, 有直属对象的间隔一个使用分隔符的分区
+     */
+    static List<S3PartitionedIterator.Partition> prefixPartitions() {
+        return List.of(
+                new S3PartitionedIterator.Partition("a/", null, null, null),
+                new S3PartitionedIterator.Partition(null, "/", "a/", "b/"),
+                new S3PartitionedIterator.Partition("b/", null, null, null),
+                new S3PartitionedIterator.Partition(null, "/", "b/", "d/"),
+                new S3PartitionedIterator.Partition("d/", null, null, null),
+                new S3PartitionedIterator.Partition(null, "/", "d/", null));
+    }
+
+    static List<String> sorted() {
+        return KEYS.stream().sorted(StorageUtils::compareUtf8).collect(Collectors.toList());
+    }
+
+    static List<String> drain(S3PartitionedIterator iterator) {
+        List<String> result = new ArrayList<>();
+        try (iterator) {
+            iterator.forEachRemaining(info -> result.add(info.getKey()));
+        }
+        return result;
+    }
+
+    ListObjectArgs args() {
+        return ListObjectArgs.builder().bucketName("bucket").maxKeys(1).build();
+    }
+
+    @Test
+    void orderedModeReturnsKeysInUtf8Order() {
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, executor, args(), prefixPartitions(), true, 3);
+
+        assertEquals(sorted(), drain(iterator));
+    }
+
+    @Test
+    void unorderedModeReturnsEveryKeyOnce() {
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, executor, args(), prefixPartitions(), false, 3);
+
+        List<String> keys = drain(iterator);
+
+        assertEquals(KEYS.size(), keys.size());
+        assertEquals(new HashSet<>(KEYS), new HashSet<>(keys));
+    }
+
+    @Test
+    void splitPartitionsStopAtTheirEndKey() {
+        List<S3PartitionedIterator.Partition> partitions = List.of(
+                new S3PartitionedIterator.Partition(null, null, null, "a/\uFF5E"),
+                new S3PartitionedIterator.Partition(null, null, "a/\uFF5E", "c"),
+                new S3PartitionedIterator.Partition(null, null, "c", null));
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, executor, args(), partitions, true, 2);
+
+        assertEquals(sorted(), drain(iterator));
+    }
+
+    @Test
+    void failedPartitionIsWrappedInStorageException() {
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            if ("b/".equals(request.getPrefix())) {
+                throw new AmazonS3Exception("access denied");
+            }
+            return stub.list(request);
+        });
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, executor, args(), prefixPartitions(), true, 3);
+
+        assertThrows(StorageException.class, () -> drain(iterator));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    void closeStopsTheIteration() {
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, executor, args(), prefixPartitions(), true, 3);
+        iterator.next();
+
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    void startAfterAppliesToEveryPartition() {
+        ListObjectArgs args = ListObjectArgs.builder().bucketName("bucket").maxKeys(1).startAfter("b/1").build();
+        S3PartitionedIterator iterator = new S3PartitionedIterator(client, executor, args, prefixPartitions(), true, 3);
+
+        List<String> expected = sorted().stream()
+                .filter(key -> StorageUtils.compareUtf8(key, "b/1") > 0)
+                .collect(Collectors.toList());
+        assertEquals(expected, drain(iterator));
+    }
+
+}
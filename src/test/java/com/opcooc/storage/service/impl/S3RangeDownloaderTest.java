@@ -0,0 +1,286 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.AmazonS3;
+import com.opcooc.storage.args.ObjectToFileArgs;
+import com.opcooc.storage.exception.StorageException;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 分段并发下载和断点续传下载测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3RangeDownloaderTest {
+
+    private static final int PART_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    private AmazonS3 client;
+
+    private ExecutorService executor;
+
+    private S3RangeDownloader downloader;
+
+    /**
+     * 服务端的对象内容和ETag
+     */
+    private byte[] content;
+
+    private String eTag = "etag-1";
+
+    @BeforeEach
+    void setUp() {
+        client = mock(AmazonS3.class);
+        DriverProperties properties = new DriverProperties();
+        properties.setPartSize((long) PART_SIZE);
+        executor = Executors.newFixedThreadPool(3);
+        downloader = new S3RangeDownloader(client, properties, executor);
+        content = randomBytes(PART_SIZE * 3 + 200);
+        when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> respond(invocation.getArgument(0)));
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> respond(null));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 按请求的范围和ETag条件返回对象, ETag不匹配时返回 null
+     */
+    S3Object respond(GetObjectRequest request) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setHeader("ETag", eTag);
+        long start = 0;
+        long end = content.length - 1;
+        if (request != null) {
+            List<String> constraints = request.getMatchingETagConstraints();
+            if (!constraints.isEmpty() && !constraints.contains(eTag)) {
+                return null;
+            }
+            long[] range = request.getRange();
+            if (range != null) {
+                start = range[0];
+                end = range.length > 1 ? Math.min(range[1], content.length - 1) : content.length - 1;
+                metadata.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            }
+        }
+        metadata.setContentLength(end - start + 1);
+        S3Object object = new S3Object();
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(stream(new ByteArrayInputStream(Arrays.copyOfRange(content, (int) start, (int) end + 1))));
+        return object;
+    }
+
+    static S3ObjectInputStream stream(InputStream in) {
+        return new S3ObjectInputStream(in, new HttpGet());
+    }
+
+    ObjectToFileArgs args(File file) {
+        return ObjectToFileArgs.builder().bucketName("bucket").objectName("object").file(file).build();
+    }
+
+    List<String> siblings() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void downloadWritesAllRangesToTheTarget() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+
+        downloader.download(args(target));
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(List.of("target.bin"), siblings());
+    }
+
+    @Test
+    void firstRangeIsReadConcurrentlyWithTheOthers() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+        CountDownLatch othersRequested = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        List<Thread> firstReaders = new ArrayList<>();
+        when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            S3Object object = respond(request);
+            if (request.getRange()[0] != 0) {
+                othersRequested.countDown();
+                return object;
+            }
+            InputStream body = object.getObjectContent();
+            // 第一个分段的数据在其余分段发出请求之后才到达
+            object.setObjectContent(stream(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    firstReaders.add(Thread.currentThread());
+                    try {
+                        if (!othersRequested.await(5, TimeUnit.SECONDS)) {
+                            throw new IOException("other ranges were not requested while the first one was read");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return body.read(b, off, len);
+                }
+            }));
+            return object;
+        });
+
+        downloader.download(args(target));
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(firstReaders.contains(caller));
+    }
+
+    @Test
+    void downloadFailsAndLeavesNoFileWhenTheObjectChanges() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+        when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            S3Object object = respond(invocation.getArgument(0));
+            // 第一个分段之后对象被修改
+            eTag = "etag-2";
+            return object;
+        });
+
+        assertThrows(StorageException.class, () -> downloader.download(args(target)));
+
+        assertFalse(target.exists());
+        assertEquals(List.of(), siblings());
+    }
+
+    @Test
+    void resumeContinuesFromThePartFile() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+        int failAfter = PART_SIZE + 100;
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> {
+            S3Object object = respond(null);
+            // 传输到一半时连接断开
+            object.setObjectContent(stream(new ByteArrayInputStream(content, 0, failAfter) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    int read = super.read(b, off, len);
+                    if (read < 0) {
+                        throw new IllegalStateException("connection reset");
+                    }
+                    return read;
+                }
+            }));
+            return object;
+        });
+
+        assertThrows(RuntimeException.class, () -> downloader.resume(args(target)));
+        assertEquals(List.of("target.bin.part", "target.bin.part.etag"), siblings());
+        assertEquals(failAfter, Files.size(directory.resolve("target.bin.part")));
+
+        downloader.resume(args(target));
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(List.of("target.bin"), siblings());
+    }
+
+    @Test
+    void resumeRestartsWhenTheObjectChanged() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+        Files.write(directory.resolve("target.bin.part"), Arrays.copyOf(content, 100));
+        Files.write(directory.resolve("target.bin.part.etag"), List.of("eTag=etag-0", "length=" + content.length));
+
+        downloader.resume(args(target));
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(List.of("target.bin"), siblings());
+    }
+
+    @Test
+    void resumeRestartsWhenTheServerIgnoresTheRange() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+        Files.write(directory.resolve("target.bin.part"), Arrays.copyOf(content, 100));
+        Files.write(directory.resolve("target.bin.part.etag"), List.of("eTag=" + eTag, "length=" + content.length));
+        List<S3Object> ranged = new ArrayList<>();
+        when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            // 代理忽略 Range 返回完整对象, 没有 Content-Range
+            S3Object object = respond(null);
+            ranged.add(object);
+            return object;
+        });
+
+        downloader.resume(args(target));
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(List.of("target.bin"), siblings());
+        assertTrue(ranged.get(0).getObjectContent().getHttpRequest().isAborted());
+        verify(client, times(1)).getObject(any(String.class), any(String.class));
+    }
+
+    @Test
+    void resumeAbortsTheObjectWhenThePartFileCannotBeOpened() throws IOException {
+        File target = directory.resolve("target.bin").toFile();
+        // .part 被目录占用, 无法打开写入
+        Files.createDirectory(directory.resolve("target.bin.part"));
+        List<S3Object> objects = new ArrayList<>();
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> {
+            S3Object object = respond(null);
+            objects.add(object);
+            return object;
+        });
+
+        assertThrows(StorageException.class, () -> downloader.resume(args(target)));
+
+        assertTrue(objects.get(0).getObjectContent().getHttpRequest().isAborted());
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.opcooc.storage.spring.boot.autoconfigure.DriverProperties;
+
+/**
+ * 并发读取合并测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3ReadCoalescerTest {
+
+    @TempDir
+    Path directory;
+
+    private AmazonS3 client;
+
+    private DriverProperties properties;
+
+    private ExecutorService executor;
+
+    private final byte[] content = new byte[200 * 1024];
+
+    /**
+     * 每次 GET 请求对应的连接
+     */
+    private final List<HttpGet> requests = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        new Random(1).nextBytes(content);
+        client = mock(AmazonS3.class);
+        properties = new DriverProperties();
+        properties.setReadCoalescing(true);
+        properties.setReadCoalescingDir(directory.toString());
+        properties.setReadCoalescingTimeout(Duration.ofSeconds(5));
+        executor = Executors.newCachedThreadPool();
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> object());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    S3Object object() {
+        return object(content);
+    }
+
+    synchronized S3Object object(byte[] data) {
+        HttpGet request = new HttpGet();
+        requests.add(request);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(data.length);
+        S3Object object = new S3Object();
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(data), request));
+        return object;
+    }
+
+    long spoolFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void concurrentReadersShareOneRequestAndStream() throws IOException {
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        InputStream first = coalescer.get("bucket", "object");
+        InputStream second = coalescer.get("bucket", "object");
+
+        // 第一个调用方先读取一部分, 第二个调用方不需要等待下载完成
+        byte[] head = first.readNBytes(1000);
+        assertArrayEquals(content, read(second));
+        byte[] rest = read(first);
+
+        byte[] joined = new byte[head.length + rest.length];
+        System.arraycopy(head, 0, joined, 0, head.length);
+        System.arraycopy(rest, 0, joined, head.length, rest.length);
+        assertArrayEquals(content, joined);
+        verify(client, times(1)).getObject(any(String.class), any(String.class));
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    void completedReadIsNotReused() throws IOException {
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+
+        assertArrayEquals(content, read(coalescer.get("bucket", "object")));
+        assertArrayEquals(content, read(coalescer.get("bucket", "object")));
+
+        verify(client, times(2)).getObject(any(String.class), any(String.class));
+    }
+
+    @Test
+    void objectsLargerThanTheCapAreNotCoalesced() throws IOException {
+        properties.setReadCoalescingMaxSize((long) content.length - 1);
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        InputStream first = coalescer.get("bucket", "object");
+        InputStream second = coalescer.get("bucket", "object");
+
+        assertArrayEquals(content, read(first));
+        assertArrayEquals(content, read(second));
+
+        verify(client, times(2)).getObject(any(String.class), any(String.class));
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    void closingAllReadersEarlyAbortsTheRequestAndDeletesTheSpool() throws IOException {
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        InputStream first = coalescer.get("bucket", "object");
+        InputStream second = coalescer.get("bucket", "object");
+        first.readNBytes(1000);
+        assertEquals(1, spoolFiles());
+
+        first.close();
+        assertFalse(requests.get(0).isAborted());
+        second.close();
+
+        assertTrue(requests.get(0).isAborted());
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    void readAfterInvalidateDoesNotJoinTheOldRequest() throws IOException {
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        InputStream before = coalescer.get("bucket", "object");
+        byte[] head = before.readNBytes(1000);
+
+        // 下载进行中对象被覆盖
+        byte[] updated = new byte[1000];
+        new Random(2).nextBytes(updated);
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> object(updated));
+        coalescer.invalidate("bucket", "object");
+
+        assertArrayEquals(updated, read(coalescer.get("bucket", "object")));
+        byte[] rest = read(before);
+        assertEquals(content.length, head.length + rest.length);
+        assertEquals(content[content.length - 1], rest[rest.length - 1]);
+        verify(client, times(2)).getObject(any(String.class), any(String.class));
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    void invalidateBucketDetachesItsRequests() throws IOException {
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        InputStream before = coalescer.get("bucket", "object");
+        InputStream other = coalescer.get("other", "object");
+        before.readNBytes(1000);
+
+        coalescer.invalidateBucket("bucket");
+        InputStream after = coalescer.get("bucket", "object");
+        InputStream joined = coalescer.get("other", "object");
+
+        assertEquals(3, requests.size());
+        assertArrayEquals(content, read(after));
+        assertArrayEquals(content, read(joined));
+        read(before);
+        read(other);
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    void waiterTimesOutWhenTheLeaderHangs() throws Exception {
+        properties.setReadCoalescingTimeout(Duration.ofMillis(200));
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> {
+            requested.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return object();
+        });
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        Future<InputStream> leader = executor.submit(() -> coalescer.get("bucket", "object"));
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+        Future<InputStream> waiter = executor.submit(() -> coalescer.get("bucket", "object"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+
+        release.countDown();
+        assertArrayEquals(content, read(leader.get(5, TimeUnit.SECONDS)));
+        assertEquals(0, spoolFiles());
+    }
+
+    @Test
+    void closeAbortsRequestsAndDeletesSpoolFiles() throws IOException {
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        InputStream first = coalescer.get("bucket", "object");
+        first.readNBytes(1000);
+        // 已经下载完成但还没有关闭的读取
+        InputStream completed = coalescer.get("bucket", "other");
+        completed.readNBytes(content.length);
+        assertEquals(2, spoolFiles());
+
+        coalescer.close();
+
+        assertTrue(requests.get(0).isAborted());
+        assertEquals(0, spoolFiles());
+        assertThrows(IOException.class, () -> first.readNBytes(content.length));
+        assertThrows(IOException.class, () -> coalescer.get("bucket", "object"));
+        first.close();
+        completed.close();
+    }
+
+    @Test
+    void closeFailsWaitingReaders() throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(client.getObject(any(String.class), any(String.class))).thenAnswer(invocation -> {
+            requested.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return object();
+        });
+        S3ReadCoalescer coalescer = new S3ReadCoalescer(client, properties);
+        Future<InputStream> leader = executor.submit(() -> coalescer.get("bucket", "object"));
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+        Future<InputStream> waiter = executor.submit(() -> coalescer.get("bucket", "object"));
+        Thread.sleep(100);
+
+        coalescer.close();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+        release.countDown();
+        assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertTrue(requests.get(0).isAborted());
+        assertEquals(0, spoolFiles());
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.opcooc.storage.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * 远程对象随机访问通道测试(模拟 AmazonS3)
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class S3SeekableByteChannelTest {
+
+    private static final int READ_AHEAD = 64 * 1024;
+
+    private AmazonS3 client;
+
+    private final byte[] content = new byte[300 * 1024];
+
+    /**
+     * 每次 GET 请求的范围和返回的对象
+     */
+    private final List<long[]> ranges = new ArrayList<>();
+
+    private final List<S3Object> responses = new ArrayList<>();
+
+    /**
+     * 服务端是否忽略 Range 返回完整对象
+     */
+    private boolean rangeIgnored;
+
+    @BeforeEach
+    void setUp() {
+        new Random(1).nextBytes(content);
+        client = mock(AmazonS3.class);
+        ObjectMetadata head = new ObjectMetadata();
+        head.setContentLength(content.length);
+        head.setHeader(Headers.ETAG, "etag-1");
+        when(client.getObjectMetadata("bucket", "object")).thenReturn(head);
+        when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> respond(invocation.getArgument(0)));
+    }
+
+    S3Object respond(GetObjectRequest request) {
+        long start = request.getRange()[0];
+        long end = Math.min(request.getRange()[1], content.length - 1);
+        ranges.add(new long[]{start, end});
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setHeader(Headers.ETAG, "etag-1");
+        if (rangeIgnored) {
+            start = 0;
+            end = content.length - 1;
+        } else {
+            metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+        }
+        metadata.setContentLength(end - start + 1);
+        S3Object object = new S3Object();
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(Arrays.copyOfRange(content, (int) start, (int) end + 1)), new HttpGet()));
+        responses.add(object);
+        return object;
+    }
+
+    S3SeekableByteChannel open() {
+        return new S3SeekableByteChannel(client, "bucket", "object", READ_AHEAD);
+    }
+
+    /**
+     * 从当前位置读取 length 个字节
+     */
+    static byte[] readFully(S3SeekableByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // 继续读取
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Test
+    void sequentialReadsRequestOneReadAheadWindowAtATime() throws IOException {
+        try (S3SeekableByteChannel channel = open()) {
+            ByteBuffer read = ByteBuffer.allocate(content.length);
+            while (read.hasRemaining()) {
+                ByteBuffer chunk = read.slice();
+                chunk.limit(Math.min(10 * 1024, chunk.remaining()));
+                int n = channel.read(chunk);
+                read.position(read.position() + n);
+            }
+
+            assertArrayEquals(content, read.array());
+            assertEquals(content.length, channel.position());
+        }
+        assertEquals(5, ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals((long) i * READ_AHEAD, ranges.get(i)[0]);
+            assertEquals(Math.min((long) (i + 1) * READ_AHEAD, content.length) - 1, ranges.get(i)[1]);
+        }
+    }
+
+    @Test
+    void shortForwardSeekReusesTheConnection() throws IOException {
+        try (S3SeekableByteChannel channel = open()) {
+            readFully(channel, 1000);
+            channel.position(20_000);
+
+            assertArrayEquals(Arrays.copyOfRange(content, 20_000, 21_000), readFully(channel, 1000));
+        }
+        assertEquals(1, ranges.size());
+    }
+
+    @Test
+    void backwardSeekStartsANewRequest() throws IOException {
+        try (S3SeekableByteChannel channel = open()) {
+            readFully(channel, 2000);
+            channel.position(100);
+
+            assertArrayEquals(Arrays.copyOfRange(content, 100, 200), readFully(channel, 100));
+        }
+        assertEquals(2, ranges.size());
+        assertEquals(100, ranges.get(1)[0]);
+        // 剩余数据较多, 旧连接直接断开
+        assertTrue(responses.get(0).getObjectContent().getHttpRequest().isAborted());
+    }
+
+    @Test
+    void largeReadsExtendTheRequestedRange() throws IOException {
+        try (S3SeekableByteChannel channel = open()) {
+            channel.position(content.length - 100);
+            assertArrayEquals(Arrays.copyOfRange(content, content.length - 100, content.length), readFully(channel, 100));
+
+            channel.position(0);
+            assertArrayEquals(Arrays.copyOf(content, 200 * 1024), readFully(channel, 200 * 1024));
+        }
+        // 末尾的请求不超过对象长度, 大于预读长度的读取请求整个缓冲区
+        assertArrayEquals(new long[]{content.length - 100, content.length - 1}, ranges.get(0));
+        assertArrayEquals(new long[]{0, 200 * 1024 - 1}, ranges.get(1));
+    }
+
+    @Test
+    void directBuffersAreFilled() throws IOException {
+        try (S3SeekableByteChannel channel = open()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1000);
+            channel.position(500);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // 继续读取
+            }
+            byte[] read = new byte[1000];
+            buffer.flip().get(read);
+
+            assertArrayEquals(Arrays.copyOfRange(content, 500, 1500), read);
+        }
+    }
+
+    @Test
+    void readsAtOrPastTheEndReturnEof() throws IOException {
+        try (S3SeekableByteChannel channel = open()) {
+            channel.position(content.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+            channel.position(content.length + 10L);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        }
+        assertTrue(ranges.isEmpty());
+    }
+
+    @Test
+    void ignoredRangeIsRejectedAfterASeek() throws IOException {
+        rangeIgnored = true;
+        try (S3SeekableByteChannel channel = open()) {
+            channel.position(1000);
+
+            assertThrows(IOException.class, () -> channel.read(ByteBuffer.allocate(10)));
+            assertTrue(responses.get(0).getObjectContent().getHttpRequest().isAborted());
+
+            // 从 0 开始时完整对象同样可以使用
+            channel.position(0);
+            assertArrayEquals(Arrays.copyOf(content, 10), readFully(channel, 10));
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.opcooc.storage.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 并发调用合并测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class SingleFlightTest {
+
+    private static final int CALLERS = 4;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 第一个调用方在任务中等待, 直到其余调用方都已提交
+     */
+    List<Future<String>> callConcurrently(SingleFlight<String> flight, AtomicInteger executions, CountDownLatch release, RuntimeException failure) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> flight.execute("key", () -> {
+            executions.incrementAndGet();
+            started.countDown();
+            await(release);
+            if (failure != null) {
+                throw failure;
+            }
+            return "value";
+        })));
+        started.await(5, TimeUnit.SECONDS);
+        for (int i = 1; i < CALLERS; i++) {
+            futures.add(executor.submit(() -> flight.execute("key", () -> {
+                executions.incrementAndGet();
+                return "other";
+            })));
+        }
+        // 给其余调用方加入等待的时间
+        Thread.sleep(100);
+        release.countDown();
+        return futures;
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+
+        List<Future<String>> futures = callConcurrently(flight, executions, new CountDownLatch(1), null);
+
+        for (Future<String> future : futures) {
+            assertEquals("value", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void failureIsSharedWithWaitingCallers() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        IllegalStateException failure = new IllegalStateException("failed");
+
+        List<Future<String>> futures = callConcurrently(flight, new AtomicInteger(), new CountDownLatch(1), failure);
+
+        for (Future<String> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    void resultIsNotKeptAfterTheCallCompletes() {
+        SingleFlight<String> flight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+
+        flight.execute("key", () -> "first-" + executions.incrementAndGet());
+        String second = flight.execute("key", () -> "second-" + executions.incrementAndGet());
+
+        assertEquals("second-2", second);
+    }
+
+    @Test
+    void differentKeysRunIndependently() {
+        SingleFlight<String> flight = new SingleFlight<>();
+
+        String outer = flight.execute("a", () -> flight.execute("b", () -> "b") + "a");
+
+        assertEquals("ba", outer);
+    }
+
+}
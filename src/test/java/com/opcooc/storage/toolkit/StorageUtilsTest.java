@@ -0,0 +1,42 @@
+package com.opcooc.storage.toolkit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 工具类测试
+ *
+ * @author shenqicheng
+ * @since 1.2.2
+ */
+class StorageUtilsTest {
+
+    static int compareBytes(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void compareUtf8MatchesUtf8ByteOrder() {
+        List<String> values = List.of("", "a", "a/", "a/b", "b", "Z", "\u00E9", "\uD7FF", "\uE000", "\uFF5E",
+                "\uD83D\uDE00", "\uD83D\uDE00a", "\uDBFF\uDFFF");
+        for (String a : values) {
+            for (String b : values) {
+                assertEquals(Integer.signum(compareBytes(a, b)), Integer.signum(StorageUtils.compareUtf8(a, b)), a + " vs " + b);
+            }
+        }
+    }
+
+    @Test
+    void compareUtf8DiffersFromCompareToForSupplementaryCharacters() {
+        // UTF-16 中代理对排在 U+FF5E 之前, UTF-8 中排在之后
+        assertTrue("\uD83D\uDE00".compareTo("\uFF5E") < 0);
+        assertTrue(StorageUtils.compareUtf8("\uD83D\uDE00", "\uFF5E") > 0);
+    }
+
+}